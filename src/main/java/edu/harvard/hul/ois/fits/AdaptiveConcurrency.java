@@ -0,0 +1,156 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tunes the number of files examined at the same time and the number of tools
+ * running at the same time from the observed throughput, as enabled by the
+ * process.adaptive element in fits.xml.
+ * <p>
+ * The limits are adjusted at the end of each interval in the manner of AIMD
+ * congestion control. If fewer files per second were completed than in the
+ * previous interval the limits are cut by a fraction, otherwise the file limit
+ * grows by one. The tool limit also grows by one when the tools spent a
+ * significant part of their time waiting to be run.
+ */
+public class AdaptiveConcurrency {
+
+	private static final Logger logger = Logger.getLogger(AdaptiveConcurrency.class);
+
+	// A drop in throughput smaller than this fraction is taken as noise
+	private static final double TOLERANCE = 0.1;
+	// Fraction of the limits kept when the throughput drops
+	private static final double DECREASE = 0.75;
+	// Tools are queueing when they wait more than this fraction of their run time
+	private static final double QUEUE_RATIO = 0.1;
+
+	private final int minFiles;
+	private final int maxFiles;
+	private final int minTools;
+	private final int maxTools;
+	private final long intervalMs;
+	private final ConcurrencyLimit fileLimit;
+	private final ConcurrencyLimit toolLimit;
+
+	// Observations in the current interval
+	private long intervalStart = System.currentTimeMillis();
+	private int filesCompleted;
+	private int toolRuns;
+	private long toolQueueTime;
+	private long toolRunTime;
+	// Files per second in the previous interval, negative before the first one
+	private double lastThroughput = -1;
+
+	/**
+	 * Constructor
+	 *
+	 * @param minFiles The lowest number of files examined at the same time.
+	 * @param maxFiles The highest number of files examined at the same time.
+	 * @param minTools The lowest number of tools running at the same time.
+	 * @param maxTools The highest number of tools running at the same time.
+	 * @param intervalMs The time between adjustments in milliseconds.
+	 */
+	public AdaptiveConcurrency(int minFiles, int maxFiles, int minTools, int maxTools, long intervalMs) {
+		this.minFiles = minFiles;
+		this.maxFiles = maxFiles;
+		this.minTools = minTools;
+		this.maxTools = maxTools;
+		this.intervalMs = intervalMs;
+		this.fileLimit = new ConcurrencyLimit(minFiles);
+		this.toolLimit = new ConcurrencyLimit(clamp(Runtime.getRuntime().availableProcessors(), minTools, maxTools));
+		logger.info("Adaptive concurrency: files " + minFiles + "-" + maxFiles + ", tools " + minTools + "-" + maxTools);
+	}
+
+	/** Returns the limit on the number of files examined at the same time */
+	public ConcurrencyLimit getFileLimit() {
+		return fileLimit;
+	}
+
+	/** Returns the limit on the number of tools running at the same time */
+	public ConcurrencyLimit getToolLimit() {
+		return toolLimit;
+	}
+
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	/** Sets the number of files examined at the same time to start from */
+	public void setInitialFiles(int files) {
+		fileLimit.setLimit(clamp(files, minFiles, maxFiles));
+	}
+
+	/**
+	 * Records a tool run.
+	 *
+	 * @param queueTime The time in milliseconds the tool waited to be run.
+	 * @param runTime The time in milliseconds the tool ran.
+	 */
+	public synchronized void toolFinished(long queueTime, long runTime) {
+		toolRuns++;
+		toolQueueTime += queueTime;
+		toolRunTime += runTime;
+	}
+
+	/**
+	 * Records the completion of a file, adjusting the limits if the interval has passed.
+	 */
+	public void fileFinished() {
+		fileFinished(System.currentTimeMillis());
+	}
+
+	synchronized void fileFinished(long now) {
+		filesCompleted++;
+		if (now - intervalStart >= intervalMs) {
+			adjust(now);
+		}
+	}
+
+	private void adjust(long now) {
+		double throughput = filesCompleted * 1000.0 / (now - intervalStart);
+		long avgQueueTime = toolRuns == 0 ? 0 : toolQueueTime / toolRuns;
+		long avgRunTime = toolRuns == 0 ? 0 : toolRunTime / toolRuns;
+		int files = fileLimit.getLimit();
+		int tools = toolLimit.getLimit();
+
+		int newFiles;
+		int newTools;
+		if (lastThroughput > 0 && throughput < lastThroughput * (1 - TOLERANCE)) {
+			newFiles = clamp((int) (files * DECREASE), minFiles, maxFiles);
+			newTools = clamp((int) (tools * DECREASE), minTools, maxTools);
+		} else {
+			newFiles = clamp(files + 1, minFiles, maxFiles);
+			newTools = tools;
+			if (avgQueueTime > avgRunTime * QUEUE_RATIO) {
+				newTools = clamp(tools + 1, minTools, maxTools);
+			}
+		}
+		if (newFiles != files || newTools != tools) {
+			logger.info(String.format("Adaptive concurrency: files %d -> %d, tools %d -> %d (%.2f files/s, tool queue %d ms, tool run %d ms)",
+					files, newFiles, tools, newTools, throughput, avgQueueTime, avgRunTime));
+			fileLimit.setLimit(newFiles);
+			toolLimit.setLimit(newTools);
+		}
+
+		lastThroughput = throughput;
+		intervalStart = now;
+		filesCompleted = 0;
+		toolRuns = 0;
+		toolQueueTime = 0;
+		toolRunTime = 0;
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
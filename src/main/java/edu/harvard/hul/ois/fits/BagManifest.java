@@ -0,0 +1,136 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+
+package edu.harvard.hul.ois.fits;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hul.ois.fits.tools.oisfileinfo.ChecksumAlgorithm;
+
+/**
+ * The payload checksums listed in the manifest-&lt;algorithm&gt;.txt files of a
+ * BagIt bag, read once so that FileInfo can report them without reading the
+ * payload files.
+ */
+public class BagManifest {
+
+	private static final Logger logger = Logger.getLogger(BagManifest.class);
+
+	private final File bagDir;
+	// Checksums by the absolute normalized path of the payload file
+	private final Map<String, Map<ChecksumAlgorithm, String>> checksums = new HashMap<String, Map<ChecksumAlgorithm, String>>();
+
+	private BagManifest(File bagDir) {
+		this.bagDir = bagDir;
+	}
+
+	/**
+	 * Returns true if the directory is the top directory of a bag.
+	 */
+	public static boolean isBag(File dir) {
+		return new File(dir, "bagit.txt").isFile();
+	}
+
+	/**
+	 * Reads the payload manifests of a bag for the algorithms FileInfo can compute.
+	 *
+	 * @param bagDir The top directory of the bag.
+	 * @return The checksums of the bag, empty if it has no manifest.
+	 * @throws IOException If a manifest could not be read.
+	 */
+	public static BagManifest read(File bagDir) throws IOException {
+		BagManifest manifest = new BagManifest(bagDir);
+		for (ChecksumAlgorithm algorithm : ChecksumAlgorithm.values()) {
+			// BagIt names the algorithms without the hyphen, e.g. manifest-sha256.txt
+			File manifestFile = new File(bagDir, "manifest-" + algorithm.getName().replace("-", "") + ".txt");
+			if (manifestFile.isFile()) {
+				manifest.readManifest(manifestFile, algorithm);
+			}
+		}
+		logger.info("Read the checksums of " + manifest.checksums.size() + " files from the manifests of " + bagDir.getPath());
+		return manifest;
+	}
+
+	public File getBagDir() {
+		return bagDir;
+	}
+
+	/** Returns the number of files with a checksum */
+	public int size() {
+		return checksums.size();
+	}
+
+	/**
+	 * Returns the checksums listed for a file.
+	 *
+	 * @param file A payload file of the bag.
+	 * @return The checksums in lower case by algorithm, or null if the file is not listed.
+	 */
+	public Map<ChecksumAlgorithm, String> getChecksums(File file) {
+		Map<ChecksumAlgorithm, String> fileChecksums = checksums.get(key(file));
+		return fileChecksums == null ? null : Collections.unmodifiableMap(fileChecksums);
+	}
+
+	/* Each line holds a checksum and the path of a file relative to the bag, separated by whitespace */
+	private void readManifest(File manifestFile, ChecksumAlgorithm algorithm) throws IOException {
+		BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				int separator = indexOfWhitespace(line);
+				if (separator < 0) {
+					continue;
+				}
+				String checksum = line.substring(0, separator).toLowerCase();
+				String path = decode(line.substring(separator).trim());
+				String key = key(new File(bagDir, path));
+				Map<ChecksumAlgorithm, String> fileChecksums = checksums.get(key);
+				if (fileChecksums == null) {
+					fileChecksums = new EnumMap<ChecksumAlgorithm, String>(ChecksumAlgorithm.class);
+					checksums.put(key, fileChecksums);
+				}
+				fileChecksums.put(algorithm, checksum);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static int indexOfWhitespace(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			if (Character.isWhitespace(line.charAt(i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/* Line breaks and percent signs in the paths are percent-encoded since BagIt 1.0 */
+	private static String decode(String path) {
+		return path.replace("%0A", "\n").replace("%0a", "\n").replace("%0D", "\r").replace("%0d", "\r").replace("%25", "%");
+	}
+
+	private static String key(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toString();
+	}
+
+}
@@ -0,0 +1,120 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A limit on the number of things done at the same time which, unlike a
+ * Semaphore, can be raised and lowered while it is in use. Lowering the limit
+ * does not interrupt anything; new callers wait until enough have finished.
+ * <p>
+ * Callers either block in acquire() or are granted the limit later through
+ * acquireAsync(), which never blocks; waiting asynchronous callers are granted
+ * the limit in the order they asked for it, ahead of blocked callers.
+ */
+public class ConcurrencyLimit {
+
+	private int limit;
+	private int inUse;
+	// Callers of acquireAsync() not yet granted the limit
+	private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<CompletableFuture<Void>>();
+
+	public ConcurrencyLimit(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Waits until fewer than limit callers hold the limit. Every call must be
+	 * followed by a call to release().
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (inUse >= limit || !waiters.isEmpty()) {
+			wait();
+		}
+		inUse++;
+	}
+
+	/**
+	 * Returns a future completed once the caller holds the limit, without
+	 * waiting for it. The future may be completed by the thread that calls
+	 * release(), so work chained on it should not block. Every call must be
+	 * followed by a call to release() once the future has completed.
+	 */
+	public CompletableFuture<Void> acquireAsync() {
+		CompletableFuture<Void> granted = new CompletableFuture<Void>();
+		synchronized (this) {
+			if (inUse < limit && waiters.isEmpty()) {
+				inUse++;
+				granted.complete(null);
+			} else {
+				waiters.add(granted);
+			}
+		}
+		return granted;
+	}
+
+	public void release() {
+		List<CompletableFuture<Void>> granted;
+		synchronized (this) {
+			inUse--;
+			granted = grantWaiters();
+			notifyAll();
+		}
+		complete(granted);
+	}
+
+	/** Waits until no caller holds the limit */
+	public synchronized void awaitIdle() throws InterruptedException {
+		while (inUse > 0) {
+			wait();
+		}
+	}
+
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	public void setLimit(int limit) {
+		List<CompletableFuture<Void>> granted;
+		synchronized (this) {
+			this.limit = limit;
+			granted = grantWaiters();
+			notifyAll();
+		}
+		complete(granted);
+	}
+
+	/** Returns the number of callers holding the limit */
+	public synchronized int getInUse() {
+		return inUse;
+	}
+
+	/* Takes the waiters that now fit under the limit; they are completed outside the lock */
+	private List<CompletableFuture<Void>> grantWaiters() {
+		List<CompletableFuture<Void>> granted = new ArrayList<CompletableFuture<Void>>();
+		while (inUse < limit && !waiters.isEmpty()) {
+			inUse++;
+			granted.add(waiters.poll());
+		}
+		return granted;
+	}
+
+	private static void complete(List<CompletableFuture<Void>> granted) {
+		for (CompletableFuture<Void> future : granted) {
+			future.complete(null);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.twmacinta.util.MD5;
+
+/**
+ * Finds the files of a batch with identical content so that the tools are run
+ * once for each distinct content. Used by directory mode when process.deduplicate
+ * is enabled.
+ * <p>
+ * Hard links to the same inode are grouped without reading the files. The
+ * other files are grouped by size, then by a digest of their first and last
+ * bytes, and only the files still sharing a group are read in full to compare
+ * their SHA-256 digests. The MD5 digest is computed in the same pass so that
+ * FileInfo does not need to read the file again.
+ */
+public class DuplicateFinder {
+
+	private static final Logger logger = Logger.getLogger(DuplicateFinder.class);
+
+	// Bytes read from each end of a file for the fingerprint
+	private static final int FINGERPRINT_BYTES = 4096;
+
+	/**
+	 * Files with identical content. The primary file is the first of them in
+	 * the order given to findGroups().
+	 */
+	public static class Group {
+		private final File primary;
+		private final List<File> copies = new ArrayList<File>();
+		private String md5;
+
+		Group(File primary) {
+			this.primary = primary;
+		}
+
+		public File getPrimary() {
+			return primary;
+		}
+
+		/** Returns the other files with the same content as the primary file */
+		public List<File> getCopies() {
+			return copies;
+		}
+
+		/** Returns the MD5 digest of the content, or null if the files were not read */
+		public String getMd5() {
+			return md5;
+		}
+	}
+
+	/**
+	 * Returns the groups of files with the same content. Files with unique
+	 * content, and files that could not be read, are not in any group.
+	 *
+	 * @param files The files of the batch.
+	 * @return The groups with at least one copy, in the order of their primary files.
+	 */
+	public List<Group> findGroups(List<File> files) {
+		List<Group> groups = new ArrayList<Group>();
+
+		// hard links share the device and inode
+		Map<String, Group> byInode = new LinkedHashMap<String, Group>();
+		Map<Long, List<Group>> bySize = new LinkedHashMap<Long, List<Group>>();
+		for (File file : files) {
+			String fileKey = IncrementalState.fileKey(file);
+			Group linked = "-".equals(fileKey) ? null : byInode.get(fileKey);
+			if (linked != null) {
+				linked.copies.add(file);
+				continue;
+			}
+			Group group = new Group(file);
+			if (!"-".equals(fileKey)) {
+				byInode.put(fileKey, group);
+			}
+			addTo(bySize, file.length(), group);
+		}
+
+		for (List<Group> sameSize : bySize.values()) {
+			Group merged = sameSize.get(0);
+			if (sameSize.size() > 1) {
+				merged = null;
+				Map<String, List<Group>> byFingerprint = new LinkedHashMap<String, List<Group>>();
+				for (Group group : sameSize) {
+					try {
+						addTo(byFingerprint, fingerprint(group.primary), group);
+					} catch (IOException e) {
+						logger.debug("Could not read " + group.primary.getPath() + ": " + e.getMessage());
+						addGroup(groups, group);
+					}
+				}
+				for (List<Group> sameFingerprint : byFingerprint.values()) {
+					if (sameFingerprint.size() == 1) {
+						addGroup(groups, sameFingerprint.get(0));
+					} else {
+						mergeByDigest(sameFingerprint, groups);
+					}
+				}
+			}
+			if (merged != null) {
+				addGroup(groups, merged);
+			}
+		}
+		return groups;
+	}
+
+	/* Merges the groups whose content has the same full digest */
+	private void mergeByDigest(List<Group> candidates, List<Group> groups) {
+		Map<String, Group> byDigest = new LinkedHashMap<String, Group>();
+		for (Group group : candidates) {
+			String[] digests;
+			try {
+				digests = digest(group.primary);
+			} catch (IOException e) {
+				logger.debug("Could not read " + group.primary.getPath() + ": " + e.getMessage());
+				addGroup(groups, group);
+				continue;
+			}
+			Group same = byDigest.get(digests[0]);
+			if (same == null) {
+				group.md5 = digests[1];
+				byDigest.put(digests[0], group);
+			} else {
+				same.copies.add(group.primary);
+				same.copies.addAll(group.copies);
+			}
+		}
+		for (Group group : byDigest.values()) {
+			addGroup(groups, group);
+		}
+	}
+
+	private static void addGroup(List<Group> groups, Group group) {
+		if (!group.copies.isEmpty()) {
+			groups.add(group);
+		}
+	}
+
+	private static <K> void addTo(Map<K, List<Group>> map, K key, Group group) {
+		List<Group> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<Group>();
+			map.put(key, list);
+		}
+		list.add(group);
+	}
+
+	/* Returns a digest of the first and last bytes of the file */
+	private static String fingerprint(File file) throws IOException {
+		MD5 md5 = new MD5();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			byte[] buffer = new byte[(int) Math.min(FINGERPRINT_BYTES, length)];
+			raf.readFully(buffer);
+			md5.Update(buffer, 0, buffer.length);
+			if (length > FINGERPRINT_BYTES) {
+				buffer = new byte[(int) Math.min(FINGERPRINT_BYTES, length - FINGERPRINT_BYTES)];
+				raf.seek(length - buffer.length);
+				raf.readFully(buffer);
+				md5.Update(buffer, 0, buffer.length);
+			}
+		} finally {
+			raf.close();
+		}
+		return MD5.asHex(md5.Final());
+	}
+
+	/* Returns the SHA-256 and MD5 digests of the file, read in one pass */
+	private static String[] digest(File file) throws IOException {
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
+		}
+		MD5 md5 = new MD5();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				sha.update(buffer, 0, n);
+				md5.Update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return new String[] { MD5.asHex(sha.digest()), MD5.asHex(md5.Final()) };
+	}
+}
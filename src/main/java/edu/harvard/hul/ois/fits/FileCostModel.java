@@ -0,0 +1,148 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+
+/**
+ * Estimates the time taken to examine a file from its size and the time per
+ * byte taken by earlier files with the same extension, as reported in the
+ * statistics element of their output. Used by the cost-model schedule policy.
+ * <p>
+ * The learned times can be saved to and loaded from a properties file so that
+ * a run is scheduled with what was learned in the previous runs. Extensions
+ * that have not been seen are given the average time per byte of the others.
+ */
+public class FileCostModel {
+
+	private static final Logger logger = Logger.getLogger(FileCostModel.class);
+
+	// Weight of a new observation in the moving average of the time per byte
+	private static final double LEARNING_RATE = 0.3;
+	// Small files are dominated by the fixed cost of starting the tools
+	private static final long MIN_SIZE = 64 * 1024;
+
+	// Moves the learned time per byte towards a new observation
+	private static final BiFunction<Double, Double, Double> MOVING_AVERAGE = new BiFunction<Double, Double, Double>() {
+		public Double apply(Double factor, Double observed) {
+			return factor + LEARNING_RATE * (observed - factor);
+		}
+	};
+
+	// Milliseconds per byte by lower case extension
+	private final Map<String, Double> msPerByte = new ConcurrentHashMap<String, Double>();
+
+	/**
+	 * Returns the estimated cost of examining a file, in milliseconds.
+	 */
+	public double estimate(File file, long size) {
+		Double factor = msPerByte.get(extension(file));
+		if (factor == null) {
+			factor = averageFactor();
+		}
+		return Math.max(size, MIN_SIZE) * factor;
+	}
+
+	/**
+	 * Learns from the statistics of the output of a file. Nothing is learned
+	 * if statistics are not enabled.
+	 */
+	public void record(File file, long size, FitsOutput output) {
+		Element root = output.getFitsXml().getRootElement();
+		Element statistics = root.getChild("statistics", root.getNamespace());
+		if (statistics == null) {
+			return;
+		}
+		try {
+			long time = Long.parseLong(statistics.getAttributeValue("fitsExecutionTime"));
+			record(file, size, time);
+		} catch (NumberFormatException e) {
+			logger.debug("No execution time in the statistics of " + file.getName());
+		}
+	}
+
+	/**
+	 * Learns from the time taken to examine a file.
+	 */
+	public void record(File file, long size, long time) {
+		String ext = extension(file);
+		double observed = (double) time / Math.max(size, MIN_SIZE);
+		// atomic, as files with the same extension may finish at the same time
+		msPerByte.merge(ext, observed, MOVING_AVERAGE);
+	}
+
+	/**
+	 * Loads the times learned in earlier runs. A missing file is not an error.
+	 */
+	public void load(File file) throws IOException {
+		if (!file.isFile()) {
+			return;
+		}
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		for (String ext : props.stringPropertyNames()) {
+			try {
+				msPerByte.put(ext, Double.valueOf(props.getProperty(ext)));
+			} catch (NumberFormatException e) {
+				logger.warn("Ignoring invalid cost for " + ext + " in " + file.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Saves the learned times for the next runs.
+	 */
+	public void save(File file) throws IOException {
+		Properties props = new Properties();
+		for (Map.Entry<String, Double> entry : msPerByte.entrySet()) {
+			props.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			props.store(out, "FITS milliseconds per byte by file extension");
+		} finally {
+			out.close();
+		}
+	}
+
+	private double averageFactor() {
+		if (msPerByte.isEmpty()) {
+			return 1.0;
+		}
+		double sum = 0;
+		for (Double factor : msPerByte.values()) {
+			sum += factor;
+		}
+		return sum / msPerByte.size();
+	}
+
+	private static String extension(File file) {
+		return FilenameUtils.getExtension(file.getName()).toLowerCase();
+	}
+}
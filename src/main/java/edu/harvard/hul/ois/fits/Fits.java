@@ -16,23 +16,62 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -46,6 +85,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.jdom.Document;
@@ -56,11 +96,16 @@ import edu.harvard.hul.ois.fits.consolidation.ToolOutputConsolidator;
 import edu.harvard.hul.ois.fits.exceptions.FitsConfigurationException;
 import edu.harvard.hul.ois.fits.exceptions.FitsException;
 import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
+import edu.harvard.hul.ois.fits.identity.ToolIdentity;
 import edu.harvard.hul.ois.fits.mapping.FitsXmlMapper;
+import edu.harvard.hul.ois.fits.tools.FileContext;
 import edu.harvard.hul.ois.fits.tools.Tool;
 import edu.harvard.hul.ois.fits.tools.Tool.RunStatus;
 import edu.harvard.hul.ois.fits.tools.ToolBelt;
 import edu.harvard.hul.ois.fits.tools.ToolOutput;
+import edu.harvard.hul.ois.fits.tools.ToolResult;
+import edu.harvard.hul.ois.fits.tools.oisfileinfo.ChecksumAlgorithm;
+import edu.harvard.hul.ois.fits.tools.utils.XsltTemplatesCache;
 import edu.harvard.hul.ois.ots.schemas.XmlContent.XmlContent;
 
 /**
@@ -88,9 +133,40 @@ public class Fits {
   private String internalOutputSchema;
   private boolean validateToolOutput;
   private int maxThreads = 20;
+  private ExecutorService toolExecutor;
+  private ScheduledExecutorService timeoutScheduler;
+  private int maxFilesInFlight = 1;
+  private long maxBytesInFlight = 0;
+  // bytes read once from each input and shared by the tools through a FileContext
+  private int contextHeaderBytes = 65536;
+  private int contextTailBytes = 0;
+  private boolean contextMemoryMap = true;
+  private SchedulePolicy schedulePolicy = SchedulePolicy.FIFO;
+  private boolean deduplicate;
+  private FileCostModel costModel = new FileCostModel();
+  private File costModelFile;
+  // null unless process.adaptive is enabled
+  private AdaptiveConcurrency adaptive;
+  private File journalFile;
+  // open while a directory is processed with a journal
+  private ProcessingJournal journal;
+  private File incrementalFile;
+  // null unless output.cache is enabled
+  private FitsOutputCache outputCache;
+  private String cacheEnvironment;
+  // loaded while a directory is processed in incremental mode
+  private IncrementalState incremental;
+  // outputs written again once their deferred checksums are computed, while a directory is processed
+  private final List<CompletableFuture<Void>> deferredWrites = new CopyOnWriteArrayList<CompletableFuture<Void>>();
   private ToolOutputConsolidator consolidator;
   private ToolBelt toolbelt;
   private boolean resetToolOutput = true; // should always be true except for unit tests
+  // checksums computed while spooling or hashing a file, by the absolute path of the file
+  private final Map<String, Map<ChecksumAlgorithm, String>> spooledChecksums = new ConcurrentHashMap<String, Map<ChecksumAlgorithm, String>>();
+  // manifests of the BagIt bags whose payload checksums FileInfo reports instead of reading the files
+  private final List<BagManifest> bags = new CopyOnWriteArrayList<BagManifest>();
+  private boolean bagMode;
+  private boolean verifyManifests;
   
   private static Logger logger;
 
@@ -231,6 +307,84 @@ public class Fits {
     }
     logger.debug( "Maximum threads = " + maxThreads );
 
+    try {
+      maxFilesInFlight = config.getShort( "process.max-files-in-flight" );
+    } catch (NoSuchElementException e) {
+    }
+    if (maxFilesInFlight < 1) {
+      // If invalid number specified, process one file at a time.
+      maxFilesInFlight = 1;
+    }
+    logger.debug( "Maximum files in flight = " + maxFilesInFlight );
+
+    try {
+      maxBytesInFlight = config.getLong( "process.max-bytes-in-flight" );
+    } catch (NoSuchElementException e) {
+    }
+    if (maxBytesInFlight < 0) {
+      // If invalid number specified, do not limit the size of the files in flight.
+      maxBytesInFlight = 0;
+    }
+
+    contextHeaderBytes = Math.max( 0, config.getInt( "process.file-context[@header-bytes]", contextHeaderBytes ) );
+    contextTailBytes = Math.max( 0, config.getInt( "process.file-context[@tail-bytes]", contextTailBytes ) );
+    contextMemoryMap = config.getBoolean( "process.file-context[@memory-map]", contextMemoryMap );
+
+    String policyName = config.getString( "process.schedule-policy" );
+    if (!StringUtils.isBlank( policyName )) {
+      schedulePolicy = SchedulePolicy.forName( policyName );
+      if (schedulePolicy == null) {
+        throw new FitsConfigurationException( "Unknown process.schedule-policy: " + policyName );
+      }
+    }
+    String costModelName = config.getString( "process.cost-model-file" );
+    if (!StringUtils.isBlank( costModelName )) {
+      costModelFile = new File( costModelName );
+      if (!costModelFile.isAbsolute()) {
+        costModelFile = new File( FITS_HOME + costModelName );
+      }
+      try {
+        costModel.load( costModelFile );
+      } catch (IOException e) {
+        logger.warn( "Could not load the cost model from " + costModelFile.getPath() + ": " + e.getMessage() );
+      }
+    }
+    logger.debug( "Schedule policy = " + schedulePolicy );
+    deduplicate = config.getBoolean( "process.deduplicate", false );
+
+    // optional tuning of the files in flight and running tools from the observed throughput
+    if (config.getBoolean( "process.adaptive[@enabled]", false )) {
+      int minFiles = Math.max( 1, config.getInt( "process.adaptive[@min-files]", 1 ) );
+      int maxFiles = Math.max( minFiles, config.getInt( "process.adaptive[@max-files]",
+          Math.max( maxFilesInFlight, Runtime.getRuntime().availableProcessors() ) ) );
+      // the tool threads are never more than process.max-threads
+      int minTools = Math.min( maxThreads, Math.max( 1, config.getInt( "process.adaptive[@min-threads]", 1 ) ) );
+      int maxTools = Math.min( maxThreads, Math.max( minTools, config.getInt( "process.adaptive[@max-threads]", maxThreads ) ) );
+      long intervalMs = Math.max( 1, config.getLong( "process.adaptive[@interval-ms]", 5000 ) );
+      adaptive = new AdaptiveConcurrency( minFiles, maxFiles, minTools, maxTools, intervalMs );
+      adaptive.setInitialFiles( maxFilesInFlight );
+    }
+
+    // long-lived pool shared by all calls to examine(), sized by process.max-threads
+    toolExecutor = Executors.newFixedThreadPool( maxThreads, new ThreadFactory() {
+      private final AtomicInteger threadCount = new AtomicInteger();
+      public Thread newThread( Runnable r ) {
+        // Name the threads as a debugging aid; daemon so an idle pool does not keep the JVM alive
+        Thread thread = new Thread( r, "fits-tool-" + threadCount.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+
+    // gives up on tools that run past their timeout-ms without a thread waiting on each tool
+    timeoutScheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, "fits-tool-timeout" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+
     String consolidatorClassFullyQualifiedName = config.getString( "output.dataConsolidator[@class]" );
     try {
 		// Instantiate the Consolidator class using Reflection by passing Fits into the constructor.
@@ -243,6 +397,22 @@ public class Fits {
 
     toolbelt = new ToolBelt( config, this );
 
+    // optional cache of the output by file content, which must know the tool versions
+    if (config.getBoolean( "output.cache[@enabled]", false )) {
+      String cacheDirName = config.getString( "output.cache[@directory]", "cache" );
+      File cacheDir = new File( cacheDirName );
+      if (!cacheDir.isAbsolute()) {
+        cacheDir = new File( FITS_HOME + cacheDirName );
+      }
+      long maxBytes = config.getLong( "output.cache[@max-size-mb]", 1024 ) * 1024 * 1024;
+      try {
+        outputCache = new FitsOutputCache( cacheDir, maxBytes );
+        cacheEnvironment = getEnvironmentHash();
+      } catch (IOException | FitsException e) {
+        throw new FitsConfigurationException( "Error initializing the output cache in " + cacheDir.getPath(), e );
+      }
+    }
+
   }
 
   public static void main( String[] args ) throws FitsException, IOException, ParseException, XMLStreamException {
@@ -257,6 +427,13 @@ public class Fits {
     options.addOption( "h", false, "print this message" );
     options.addOption( "v", false, "print version information" );
     options.addOption( "f", true, "alternate fits.xml configuration file location (optional)" );
+    options.addOption( "p", true, "number of files to process in parallel when -i is a directory (optional, overrides process.max-files-in-flight)" );
+    options.addOption( "j", "journal", true, "append completed input files to this journal and skip the files it lists when -i is a directory, to resume an interrupted run (optional)" );
+    options.addOption( "u", "incremental", true, "skip the files unchanged since the run recorded in this state file when -i is a directory, copying their previous output forward (optional)" );
+    options.addOption( "d", "dedup", false, "examine files with the same content once when -i is a directory, copying the output to the others (optional, overrides process.deduplicate)" );
+    options.addOption( "b", "bag", false, "report the checksums listed in the manifests of BagIt bags found when -i is a directory instead of reading the payload files (optional)" );
+    options.addOption( "c", "verify", false, "with -b, compute the checksums of the payload files and report those that do not match the manifests (optional)" );
+    options.addOption( "s", true, "order of the files when -i is a directory: fifo, largest-first or cost-model (optional, overrides process.schedule-policy)" );
     OptionGroup outputOptions = new OptionGroup();
     Option stdxml = new Option( "x", false, "convert FITS output to a standard metadata schema -- note: only standard schema metadata is output" );
     Option combinedStd = new Option( "xc", false, "output using a standard metadata schema and include FITS xml" );
@@ -316,6 +493,29 @@ public class Fits {
     						"When FITS is run in directory processing mode the output location must be a directory." );
     			}
     			Fits fits = constructFits(fitsConfigFile);
+    			if (cmd.hasOption( "p" )) {
+    				fits.setMaxFilesInFlight( parseMaxFilesInFlight( cmd.getOptionValue( "p" ) ) );
+    			}
+    			if (cmd.hasOption( "s" )) {
+    				SchedulePolicy policy = SchedulePolicy.forName( cmd.getOptionValue( "s" ) );
+    				if (policy == null) {
+    					throw new FitsException( "The -s option must be one of fifo, largest-first or cost-model: " + cmd.getOptionValue( "s" ) );
+    				}
+    				fits.setSchedulePolicy( policy );
+    			}
+    			if (cmd.hasOption( "d" )) {
+    				fits.setDeduplicate( true );
+    			}
+    			if (cmd.hasOption( "b" )) {
+    				fits.setBagMode( true );
+    				fits.setVerifyManifests( cmd.hasOption( "c" ) );
+    			}
+    			if (cmd.hasOption( "j" )) {
+    				fits.setJournalFile( new File( cmd.getOptionValue( "j" ) ) );
+    			}
+    			if (cmd.hasOption( "u" )) {
+    				fits.setIncrementalFile( new File( cmd.getOptionValue( "u" ) ) );
+    			}
     			fits.doDirectory( inputFile, new File( outputDir ), cmd.hasOption( "x" ), cmd.hasOption( "xc" ) );
     		} else { // inputFile is a file so output -o must either be a file or not set at all
     			String outputFile = cmd.getOptionValue( "o" );
@@ -325,6 +525,7 @@ public class Fits {
     			}
     			Fits fits = constructFits(fitsConfigFile);
     			FitsOutput result = fits.doSingleFile( inputFile );
+    			awaitChecksums( result );
     			fits.outputResults( result, cmd.getOptionValue( "o" ), cmd.hasOption( "x" ), cmd.hasOption( "xc" ), false );
     		}
     	} else {
@@ -340,6 +541,18 @@ public class Fits {
     System.exit( 0 );
   }
   
+  private static int parseMaxFilesInFlight(String value) throws FitsException {
+      try {
+          int n = Integer.parseInt( value );
+          if (n < 1) {
+              throw new FitsException( "The -p option must be a positive number: " + value );
+          }
+          return n;
+      } catch (NumberFormatException e) {
+          throw new FitsException( "The -p option must be a positive number: " + value );
+      }
+  }
+
   private static Fits constructFits(File fitsConfigFile) throws FitsConfigurationException {
       Fits fits = null;
       if (fitsConfigFile != null) {
@@ -386,7 +599,9 @@ public class Fits {
   }
 
   /**
-   * Recursively processes all files in the directory.
+   * Recursively processes all files in the directory. The files are ordered by
+   * the schedule policy, then up to maxFilesInFlight files are examined and
+   * output at the same time.
    *
    * @param intputFile
    * @param useStandardSchemas
@@ -394,22 +609,98 @@ public class Fits {
    * @throws XMLStreamException
    * @throws FitsException
    */
-	private void doDirectory(File inputDir, File outputDir, boolean useStandardSchemas, boolean standardCombinedFormat) throws FitsException, XMLStreamException, IOException {
+	private void doDirectory(File inputDir, File outputDir, final boolean useStandardSchemas, final boolean standardCombinedFormat) throws FitsException, XMLStreamException, IOException {
+		if (journalFile != null) {
+			journal = new ProcessingJournal(journalFile);
+		}
+		if (incrementalFile != null) {
+			incremental = new IncrementalState(incrementalFile, getEnvironmentHash());
+		}
+		try {
+			List<PendingFile> pendingFiles = new ArrayList<PendingFile>();
+			collectFiles(inputDir, outputDir, pendingFiles);
+			if (deduplicate) {
+				deduplicate(pendingFiles);
+			}
+			schedule(pendingFiles);
+			processFiles(pendingFiles, useStandardSchemas, standardCombinedFormat);
+		} finally {
+			awaitDeferredWrites();
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+			if (incremental != null) {
+				incremental.save();
+				incremental = null;
+			}
+		}
+	}
+
+	private void processFiles(List<PendingFile> pendingFiles, final boolean useStandardSchemas, final boolean standardCombinedFormat) throws FitsException, XMLStreamException, IOException {
+		try {
+			if (maxFilesInFlight <= 1 && adaptive == null) {
+				for (PendingFile pendingFile : pendingFiles) {
+					logger.info("processing " + pendingFile.file.getPath());
+					doDirectoryFile(pendingFile, useStandardSchemas, standardCombinedFormat);
+				}
+				return;
+			}
+
+			InFlightFiles inFlight;
+			if (adaptive != null) {
+				logger.info("Processing up to " + adaptive.getMaxFiles() + " files in parallel, starting from " + maxFilesInFlight);
+				adaptive.setInitialFiles(maxFilesInFlight);
+				inFlight = new InFlightFiles(adaptive.getFileLimit(), adaptive.getMaxFiles());
+			} else {
+				logger.info("Processing up to " + maxFilesInFlight + " files in parallel");
+				inFlight = new InFlightFiles(new ConcurrencyLimit(maxFilesInFlight), maxFilesInFlight);
+			}
+			try {
+				for (final PendingFile pendingFile : pendingFiles) {
+					inFlight.submit(new Callable<Void>() {
+						public Void call() throws Exception {
+							logger.info("processing " + pendingFile.file.getPath());
+							doDirectoryFile(pendingFile, useStandardSchemas, standardCombinedFormat);
+							return null;
+						}
+					});
+				}
+				inFlight.awaitAll();
+			} finally {
+				inFlight.shutdown();
+			}
+		} finally {
+			saveCostModel();
+		}
+	}
+
+	/*
+	 * Walks the directory tree, creating the nested output directories and listing the files to process.
+	 */
+	private void collectFiles(File inputDir, File outputDir, List<PendingFile> pendingFiles) {
 		if(inputDir.listFiles() == null) {
 			return;
 		}
 
 		logger.info("Processing directory " + inputDir.getAbsolutePath());
 
-		for (File f : inputDir.listFiles()) {
+		if (bagMode && BagManifest.isBag(inputDir)) {
+			try {
+				addBag(inputDir);
+			} catch (FitsException e) {
+				logger.warn(e.getMessage() + ", the checksums of its files are computed");
+			}
+		}
+
+		for (final File f : inputDir.listFiles()) {
 
 			if(f == null || !f.exists() || !f.canRead()) {
 				continue;
 			}
 
-			logger.info("processing " + f.getPath());
-
 			if (f.isDirectory() && traverseDirs) {
+				logger.info("processing " + f.getPath());
 				// need to reset original directory after return from recursive call when nesting output
 				File savedDir = outputDir;
 				if (nestDirs) {
@@ -418,7 +709,7 @@ public class Fits {
 						outputDir.mkdir();
 					}
 				}
-				doDirectory(f, outputDir, useStandardSchemas, standardCombinedFormat);
+				collectFiles(f, outputDir, pendingFiles);
 				outputDir = savedDir;
 			} else if (f.isFile()) {
 				if (".DS_Store".equals(f.getName())) {
@@ -426,23 +717,336 @@ public class Fits {
 					logger.debug("Skipping .DS_Store");
 					continue;
 				}
-				FitsOutput result = doSingleFile(f);
-				String outputFile = outputDir.getPath() + File.separator + f.getName() + "." + FITS_CONFIG_FILE_NAME;
-				File output = new File(outputFile);
-				if (output.exists()) {
-					int cnt = 1;
-					while (true) {
-						outputFile = outputDir.getPath() + File.separator + f.getName() + "-" + cnt + "." + FITS_CONFIG_FILE_NAME;
-						output = new File(outputFile);
-						if (!output.exists()) {
-							break;
+				if (journal != null && journal.isCompleted(f)) {
+					logger.debug("Skipping " + f.getPath() + ", completed by an earlier run");
+					continue;
+				}
+				if (incremental != null && carryForward(f, outputDir)) {
+					continue;
+				}
+				pendingFiles.add(new PendingFile(f, outputDir));
+			}
+		}
+	}
+
+	/*
+	 * Orders the files by the schedule policy so that the most expensive files start first
+	 * and the small files fill the gaps at the end. Files of equal cost keep the walk order.
+	 */
+	private void schedule(List<PendingFile> pendingFiles) {
+		if (schedulePolicy == SchedulePolicy.FIFO) {
+			return;
+		}
+		logger.info("Scheduling " + pendingFiles.size() + " files " + schedulePolicy);
+		for (PendingFile pendingFile : pendingFiles) {
+			pendingFile.size = pendingFile.file.length();
+			if (schedulePolicy == SchedulePolicy.COST_MODEL) {
+				pendingFile.cost = costModel.estimate(pendingFile.file, pendingFile.size);
+			} else {
+				pendingFile.cost = pendingFile.size;
+			}
+		}
+		Collections.sort(pendingFiles, new Comparator<PendingFile>() {
+			public int compare(PendingFile a, PendingFile b) {
+				return Double.compare(b.cost, a.cost);
+			}
+		});
+	}
+
+	/*
+	 * Waits for checksums computed after the other tools. If they could not be
+	 * computed, which is logged, the output is used without them.
+	 */
+	private static void awaitChecksums(FitsOutput result) {
+		try {
+			result.getDeferredChecksums().join();
+		} catch (CompletionException e) {
+		}
+	}
+
+	private void doDirectoryFile(PendingFile pendingFile, boolean useStandardSchemas, boolean standardCombinedFormat) throws FitsException, XMLStreamException, IOException {
+		// the MD5 digest read while looking for duplicates is handed to FileInfo
+		String md5Key = pendingFile.file.getAbsolutePath();
+		boolean md5Registered = pendingFile.md5 != null
+				&& spooledChecksums.putIfAbsent(md5Key, Collections.singletonMap(ChecksumAlgorithm.MD5, pendingFile.md5)) == null;
+		FitsOutput result;
+		try {
+			result = doSingleFile(pendingFile.file);
+		} finally {
+			if (md5Registered) {
+				spooledChecksums.remove(md5Key);
+			}
+		}
+		if (schedulePolicy == SchedulePolicy.COST_MODEL) {
+			costModel.record(pendingFile.file, pendingFile.size, result);
+		}
+
+		final FitsOutput fitsOutput = result;
+		// files with the same content get a copy of the output describing each file
+		final Map<PendingFile, File> outputs = new LinkedHashMap<PendingFile, File>();
+		outputs.put(pendingFile, getOutputFile(pendingFile));
+		for (PendingFile duplicate : pendingFile.duplicates) {
+			outputs.put(duplicate, getOutputFile(duplicate));
+		}
+
+		if (!result.hasPendingChecksums()) {
+			writeDirectoryOutputs(pendingFile, result, outputs, true, useStandardSchemas, standardCombinedFormat);
+			return;
+		}
+		// written now without the checksums and again once they are computed, without holding up the next file.
+		// Both are written from copies as the checksums are added to the output, and it may be cached, on other threads.
+		writeDirectoryOutputs(pendingFile, result.copy(), outputs, false, useStandardSchemas, standardCombinedFormat);
+		final PendingFile primary = pendingFile;
+		final boolean standard = useStandardSchemas;
+		final boolean combined = standardCombinedFormat;
+		deferredWrites.add(result.getDeferredChecksums().handle(new BiFunction<FitsOutput, Throwable, Void>() {
+			public Void apply(FitsOutput complete, Throwable e) {
+				// when the checksums failed, which is logged, the file is done with the output already written
+				try {
+					writeDirectoryOutputs(primary, (complete != null ? complete : fitsOutput).copy(), outputs, true, standard, combined);
+				} catch (Exception writeError) {
+					logger.error("Could not write the output of " + primary.file.getPath() + ": " + writeError.getMessage(), writeError);
+				}
+				return null;
+			}
+		}));
+	}
+
+	/*
+	 * Writes the output of a file and of the files with the same content to the reserved output files.
+	 * Completed files are recorded in the journal and the incremental state.
+	 */
+	private void writeDirectoryOutputs(PendingFile pendingFile, FitsOutput result, Map<PendingFile, File> outputs, boolean completed,
+			boolean useStandardSchemas, boolean standardCombinedFormat) throws FitsException, XMLStreamException, IOException {
+		for (Map.Entry<PendingFile, File> output : outputs.entrySet()) {
+			FitsOutput fileResult = result;
+			if (output.getKey() != pendingFile) {
+				logger.debug("Copying the output of " + pendingFile.file.getPath() + " for " + output.getKey().file.getPath());
+				fileResult = result.copy();
+				fileResult.updateFileInfo(output.getKey().file);
+			}
+			writeDirectoryOutput(output.getKey(), fileResult, output.getValue(), completed, useStandardSchemas, standardCombinedFormat);
+		}
+	}
+
+	private void writeDirectoryOutput(PendingFile pendingFile, FitsOutput result, File output, boolean completed,
+			boolean useStandardSchemas, boolean standardCombinedFormat) throws FitsException, XMLStreamException, IOException {
+		outputResults(result, output.getPath(), useStandardSchemas,
+				standardCombinedFormat, true);
+		if (!completed) {
+			return;
+		}
+		if (journal != null) {
+			journal.record(pendingFile.file, output);
+		}
+		if (incremental != null) {
+			incremental.record(pendingFile.file, output);
+		}
+	}
+
+	/* Waits for the outputs being written again with their deferred checksums */
+	private void awaitDeferredWrites() {
+		if (!deferredWrites.isEmpty()) {
+			logger.info("Waiting for the checksums of " + deferredWrites.size() + " files");
+		}
+		for (CompletableFuture<Void> write : deferredWrites) {
+			write.join();
+		}
+		deferredWrites.clear();
+	}
+
+	/*
+	 * Leaves only the first of the files with the same content in the list, with the
+	 * others as its duplicates, so that the tools run once for each distinct content.
+	 */
+	private void deduplicate(List<PendingFile> pendingFiles) {
+		Map<File, PendingFile> byFile = new HashMap<File, PendingFile>();
+		List<File> files = new ArrayList<File>();
+		for (PendingFile pendingFile : pendingFiles) {
+			byFile.put(pendingFile.file, pendingFile);
+			files.add(pendingFile.file);
+		}
+		int copies = 0;
+		Set<PendingFile> duplicates = new HashSet<PendingFile>();
+		for (DuplicateFinder.Group group : new DuplicateFinder().findGroups(files)) {
+			PendingFile primary = byFile.get(group.getPrimary());
+			primary.md5 = group.getMd5();
+			for (File copy : group.getCopies()) {
+				PendingFile duplicate = byFile.get(copy);
+				primary.duplicates.add(duplicate);
+				duplicates.add(duplicate);
+				copies++;
+			}
+		}
+		pendingFiles.removeAll(duplicates);
+		logger.info("Found " + copies + " files with the same content as another, examining " + pendingFiles.size() + " files");
+	}
+
+	/*
+	 * Uses the output of the previous run for a file that has not changed, copying it to the
+	 * output directory unless it is already there. Returns false if the file must be examined.
+	 */
+	private boolean carryForward(File f, File outputDir) {
+		File previousOutput = incremental.getUnchangedOutput(f);
+		if (previousOutput == null) {
+			return false;
+		}
+		try {
+			File output = previousOutput;
+			if (!previousOutput.getAbsoluteFile().getParentFile().equals(outputDir.getAbsoluteFile())) {
+				output = reserveOutputFile(outputDir, f.getName());
+				Files.copy(previousOutput.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			logger.debug("Skipping " + f.getPath() + ", unchanged since the last run");
+			incremental.record(f, output);
+			return true;
+		} catch (IOException e) {
+			logger.warn("Could not copy the previous output of " + f.getPath() + ", examining it again: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/*
+	 * Keeps what the cost model learned during this run for the next one.
+	 */
+	private void saveCostModel() {
+		if (schedulePolicy != SchedulePolicy.COST_MODEL || costModelFile == null) {
+			return;
+		}
+		try {
+			costModel.save(costModelFile);
+		} catch (IOException e) {
+			logger.warn("Could not save the cost model to " + costModelFile.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * A file of a directory waiting to be processed.
+	 */
+	private static class PendingFile {
+		final File file;
+		final File outputDir;
+		long size;
+		// estimated cost of examining the file, only set when the files are not processed in walk order
+		double cost;
+		// files with the same content which get a copy of the output of this file
+		final List<PendingFile> duplicates = new ArrayList<PendingFile>();
+		// MD5 digest computed while looking for duplicates, null if the file was not read
+		String md5;
+
+		PendingFile(File file, File outputDir) {
+			this.file = file;
+			this.outputDir = outputDir;
+		}
+	}
+
+	/*
+	 * Returns the output file of a file examined in a directory. In incremental mode the
+	 * output of the previous run in the same output directory is replaced, so that a changed
+	 * file does not leave its stale output behind under the original name.
+	 */
+	private File getOutputFile(PendingFile pendingFile) throws IOException {
+		if (incremental != null) {
+			File previousOutput = incremental.getPreviousOutput(pendingFile.file);
+			if (previousOutput != null
+					&& previousOutput.getAbsoluteFile().getParentFile().equals(pendingFile.outputDir.getAbsoluteFile())) {
+				return previousOutput;
+			}
+		}
+		return reserveOutputFile(pendingFile.outputDir, pendingFile.file.getName());
+	}
+
+	/*
+	 * Claims an unused output file name, adding a -1, -2, ... suffix when the name is taken.
+	 * The file is created here so that files with the same name processed at the same time
+	 * can never be given the same output file.
+	 */
+	private static File reserveOutputFile(File outputDir, String inputName) throws IOException {
+		File output = new File(outputDir, inputName + "." + FITS_CONFIG_FILE_NAME);
+		int cnt = 1;
+		while (!output.createNewFile()) {
+			output = new File(outputDir, inputName + "-" + cnt + "." + FITS_CONFIG_FILE_NAME);
+			cnt++;
+		}
+		return output;
+	}
+
+	/*
+	 * Runs the files of a directory on a fixed number of threads. submit() blocks while
+	 * the limit on files in flight is reached so no more files are queued than can run.
+	 * The first error stops any further files from being submitted and is rethrown by awaitAll().
+	 */
+	private static class InFlightFiles {
+
+		private final ConcurrencyLimit limit;
+		private final ExecutorService executor;
+		private volatile Exception error;
+
+		/*
+		 * The limit may change while the files are processed but must never exceed maxFiles.
+		 */
+		InFlightFiles(ConcurrencyLimit limit, int maxFiles) {
+			this.limit = limit;
+			this.executor = Executors.newFixedThreadPool(maxFiles, new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "fits-file-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		void submit(final Callable<Void> task) throws FitsException, XMLStreamException, IOException {
+			try {
+				limit.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FitsException("Interrupted while waiting for files to finish processing", e);
+			}
+			rethrowError();
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						task.call();
+					} catch (Exception e) {
+						if (error == null) {
+							error = e;
 						}
-						cnt++;
+					} finally {
+						limit.release();
 					}
 				}
-				outputResults(result, outputFile, useStandardSchemas,
-						standardCombinedFormat, true);
+			});
+		}
+
+		void awaitAll() throws FitsException, XMLStreamException, IOException {
+			try {
+				limit.awaitIdle();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FitsException("Interrupted while waiting for files to finish processing", e);
 			}
+			rethrowError();
+		}
+
+		void shutdown() {
+			executor.shutdownNow();
+		}
+
+		private void rethrowError() throws FitsException, XMLStreamException, IOException {
+			Exception e = error;
+			if (e == null) {
+				return;
+			}
+			if (e instanceof FitsException) {
+				throw (FitsException) e;
+			} else if (e instanceof XMLStreamException) {
+				throw (XMLStreamException) e;
+			} else if (e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw new FitsException("Error processing file", e);
 		}
 	}
 
@@ -522,19 +1126,9 @@ public class Fits {
     Transformer transformer = null;
 
     // initialize transformer for pretty print xslt
-    TransformerFactory tFactory = null;
-	String factoryImpl = "net.sf.saxon.TransformerFactoryImpl";
-	try {
-		Class<?> clazz = Class.forName(factoryImpl);
-		tFactory = (TransformerFactory)clazz.newInstance();
-	} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-		throw new FitsToolException("Could not access or instantiate class: " + factoryImpl, e);
-	}
-
     String prettyPrintXslt = FITS_XML_DIR + "prettyprint.xslt";
     try {
-      Templates template = tFactory.newTemplates( new StreamSource( prettyPrintXslt ) );
-      transformer = template.newTransformer();
+      transformer = XsltTemplatesCache.getTemplates( prettyPrintXslt ).newTransformer();
     } catch (Exception e) {
       transformer = null;
     }
@@ -578,98 +1172,513 @@ public class Fits {
     formatter.printHelp( "fits", null, opts, null );
   }
 
+  /**
+   * Examines a file with the configured tools, waiting for the result.
+   *
+   * @param input The file to examine.
+   * @return The consolidated output of the tools.
+   * @throws FitsException If the file does not exist or the output could not be consolidated.
+   * @see #examineAsync(File)
+   */
   public FitsOutput examine( File input ) throws FitsException {
-    long t1 = System.currentTimeMillis();
-    if (!input.exists()) {
-      throw new FitsConfigurationException( input.getAbsolutePath() + " does not exist or is not readable" );
+    try {
+      return examineAsync( input ).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FitsException( "Interrupted while examining " + input.getAbsolutePath(), e );
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FitsException) {
+        throw (FitsException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new FitsException( "Error examining " + input.getAbsolutePath(), cause );
     }
+  }
 
-    List<ToolOutput> toolResults = new ArrayList<ToolOutput>();
-
-    // run file through each tool, catching exceptions thrown by tools
-    List<Throwable> caughtThrowables = new ArrayList<Throwable>();
-    String path = input.getPath().toLowerCase();
-    String ext = path.substring( path.lastIndexOf( "." ) + 1 );
-
-    ArrayList<Thread> threads = new ArrayList<Thread>();
-    // GDM 16-Nov-12: Implement limit on maximum threads
-    for (Tool t : toolbelt.getTools()) {
-      if (t.isEnabled()) {
-
-        // figure out of the tool should be run against the file depending on
-        // the include and exclude extension lists
-        RunStatus runStatus = RunStatus.SHOULDNOTRUN;
-        // if the tool has an include-exts list and it has the extension in it,
-        // then run
-        if (t.hasIncludedExtensions()) {
-          if (t.hasIncludedExtension( ext )) {
-            runStatus = RunStatus.SHOULDRUN;
+  /**
+   * Examines the content of a stream, such as an upload, with the configured tools.
+   * The stream is copied once to a temporary file named after filename, which the
+   * tools then read, and the configured checksums are computed during the copy rather
+   * than by reading the file again. The temporary file is deleted before this method returns,
+   * or with output.deferred-checksum once the checksums have been computed from it;
+   * the stream is not closed.
+   *
+   * @param input The content to examine.
+   * @param filename The original name of the content. Its extension decides which tools run.
+   * @param length The number of bytes in the stream, or -1 if not known.
+   * @return The consolidated output of the tools.
+   * @throws FitsException If the stream could not be copied, is not of the given length
+   *         or the output could not be consolidated.
+   */
+  public FitsOutput examine( InputStream input, String filename, long length ) throws FitsException {
+    String name = FilenameUtils.getName( filename );
+    if (StringUtils.isBlank( name )) {
+      name = "input";
+    }
+    File spoolDir = null;
+    File spooled = null;
+    boolean deleteLater = false;
+    try {
+      // a directory of its own keeps the original name without clashing with other uploads
+      spoolDir = Files.createTempDirectory( "fits-" ).toFile();
+      spooled = new File( spoolDir, name );
+      Map<ChecksumAlgorithm, String> checksums = spool( input, spooled, length );
+      String key = spooled.getAbsolutePath();
+      if (checksums != null) {
+        spooledChecksums.put( key, checksums );
+      }
+      FitsOutput result;
+      try {
+        result = examine( spooled );
+      } finally {
+        spooledChecksums.remove( key );
+      }
+      if (result.hasPendingChecksums()) {
+        // the deferred checksums still read the spooled file
+        final File spooledFile = spooled;
+        final File spooledDir = spoolDir;
+        deleteLater = true;
+        result.getDeferredChecksums().whenComplete( new BiConsumer<FitsOutput, Throwable>() {
+          public void accept( FitsOutput complete, Throwable e ) {
+            deleteSpooled( spooledFile, spooledDir );
           }
+        } );
+      }
+      return result;
+    } catch (IOException e) {
+      throw new FitsException( "Could not copy the input stream of " + filename + " to a temporary file", e );
+    } finally {
+      if (!deleteLater) {
+        deleteSpooled( spooled, spoolDir );
+      }
+    }
+  }
+
+  private static void deleteSpooled( File spooled, File spoolDir ) {
+    if (spooled != null && spooled.exists() && !spooled.delete()) {
+      logger.warn( "Could not delete temporary file " + spooled.getAbsolutePath() );
+    }
+    if (spoolDir != null) {
+      spoolDir.delete();
+    }
+  }
+
+  /*
+   * Copies the stream to the file, returning the configured checksums of the content if checksums are enabled.
+   */
+  private Map<ChecksumAlgorithm, String> spool( InputStream input, File spooled, long length ) throws IOException, FitsException {
+    List<ChecksumAlgorithm> algorithms = getChecksumAlgorithms();
+    MessageDigest[] digests = newDigests( algorithms );
+    long copied = 0;
+    OutputStream out = new FileOutputStream( spooled );
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int n;
+      while ((n = input.read( buffer )) != -1) {
+        out.write( buffer, 0, n );
+        for (MessageDigest digest : digests) {
+          digest.update( buffer, 0, n );
         }
-        // if the tool has an exclude-exts list and it does NOT have the
-        // extension in it, then run
-        else if (t.hasExcludedExtensions()) {
-          if (!t.hasExcludedExtension( ext )) {
-            runStatus = RunStatus.SHOULDRUN;
+        copied += n;
+      }
+    } finally {
+      out.close();
+    }
+    if (length >= 0 && copied != length) {
+      throw new FitsException( "Expected " + length + " bytes in the input stream of " + spooled.getName() + " but read " + copied );
+    }
+    return toChecksums( algorithms, digests );
+  }
+
+  /*
+   * Returns the checksums FileInfo reports, from output.checksum-algorithms, or none if
+   * checksums are not enabled. Unknown names are left for FileInfo to report.
+   */
+  private List<ChecksumAlgorithm> getChecksumAlgorithms() {
+    List<ChecksumAlgorithm> algorithms = new ArrayList<ChecksumAlgorithm>();
+    if (!config.getBoolean( "output.enable-checksum", false )) {
+      return algorithms;
+    }
+    for (Object name : config.getList( "output.checksum-algorithms", Arrays.<Object>asList( "md5" ) )) {
+      ChecksumAlgorithm algorithm = StringUtils.isBlank( name.toString() ) ? null : ChecksumAlgorithm.forName( name.toString() );
+      if (algorithm != null && !algorithms.contains( algorithm )) {
+        algorithms.add( algorithm );
+      }
+    }
+    return algorithms;
+  }
+
+  private static MessageDigest[] newDigests( List<ChecksumAlgorithm> algorithms ) throws FitsException {
+    MessageDigest[] digests = new MessageDigest[algorithms.size()];
+    try {
+      for (int i = 0; i < digests.length; i++) {
+        digests[i] = algorithms.get( i ).newDigest();
+      }
+    } catch (NoSuchAlgorithmException e) {
+      throw new FitsException( "Could not compute the checksums", e );
+    }
+    return digests;
+  }
+
+  /* Returns the checksums by algorithm, or null if none were computed */
+  private static Map<ChecksumAlgorithm, String> toChecksums( List<ChecksumAlgorithm> algorithms, MessageDigest[] digests ) {
+    if (digests.length == 0) {
+      return null;
+    }
+    Map<ChecksumAlgorithm, String> checksums = new EnumMap<ChecksumAlgorithm, String>( ChecksumAlgorithm.class );
+    for (int i = 0; i < digests.length; i++) {
+      checksums.put( algorithms.get( i ), toHex( digests[i].digest() ) );
+    }
+    return Collections.unmodifiableMap( checksums );
+  }
+
+  /**
+   * Returns the checksums of a file computed while it was copied from an input stream
+   * by examine(InputStream, String, long), or while it was hashed for the output cache
+   * or for finding duplicates, so that it does not need to be read again.
+   *
+   * @param file A file being examined.
+   * @return The hexadecimal checksums by algorithm, or null if none have been computed.
+   */
+  public Map<ChecksumAlgorithm, String> getPrecomputedChecksums( File file ) {
+    return spooledChecksums.get( file.getAbsolutePath() );
+  }
+
+  /**
+   * Reads the payload manifests of a BagIt bag, so that FileInfo reports the
+   * checksums they list for the files of the bag instead of reading the files.
+   * Directory mode registers the bags it finds when bag mode is set; callers
+   * of examine() or examineAll() register their bags with this method first.
+   *
+   * @param bagDir The top directory of the bag.
+   * @return The manifest read.
+   * @throws FitsException If a manifest could not be read.
+   */
+  public BagManifest addBag( File bagDir ) throws FitsException {
+    try {
+      BagManifest manifest = BagManifest.read( bagDir );
+      bags.add( manifest );
+      return manifest;
+    } catch (IOException e) {
+      throw new FitsException( "Could not read the manifests of the bag " + bagDir.getPath(), e );
+    }
+  }
+
+  /**
+   * Returns the checksums listed for a file in the manifest of a bag registered by addBag().
+   *
+   * @param file A file being examined.
+   * @return The checksums by algorithm, or null if no manifest lists the file.
+   */
+  public Map<ChecksumAlgorithm, String> getManifestChecksums( File file ) {
+    for (BagManifest bag : bags) {
+      Map<ChecksumAlgorithm, String> checksums = bag.getChecksums( file );
+      if (checksums != null) {
+        return checksums;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if FileInfo computes the checksums of the files listed in the
+   * manifests of bags and reports those that do not match, rather than
+   * reporting the listed checksums.
+   */
+  public boolean isVerifyManifests() {
+    return verifyManifests;
+  }
+
+  /**
+   * Examines a file with the configured tools without waiting for them. The
+   * tools are queued on the FITS tool threads and the output is consolidated
+   * on the same threads once the last tool has finished.
+   *
+   * @param input The file to examine.
+   * @return A future completed with the consolidated output, or exceptionally with a FitsException.
+   * @see #examineAsync(File, Executor)
+   */
+  public CompletableFuture<FitsOutput> examineAsync( File input ) {
+    return examineAsync( input, toolExecutor );
+  }
+
+  /**
+   * Examines a file with the configured tools without waiting for them. The
+   * tools are queued on the FITS tool threads, which limit the number of tools
+   * running at once, and no thread is held while a tool runs or waits for the
+   * tools it depends on. The output is consolidated by the given executor once
+   * the last tool has finished.
+   * <p>
+   * When output.cache is enabled the file is first hashed by the given executor
+   * and, if output for the same content is cached, the cached output is returned
+   * with a cached="true" attribute instead of running the tools.
+   *
+   * @param input The file to examine.
+   * @param executor Runs the consolidation of the tool output.
+   * @return A future completed with the consolidated output, or exceptionally with a FitsException.
+   */
+  public CompletableFuture<FitsOutput> examineAsync( final File input, final Executor executor ) {
+    final long t1 = System.currentTimeMillis();
+    if (!input.exists()) {
+      CompletableFuture<FitsOutput> failed = new CompletableFuture<FitsOutput>();
+      failed.completeExceptionally( new FitsConfigurationException( input.getAbsolutePath() + " does not exist or is not readable" ) );
+      return failed;
+    }
+    if (outputCache == null) {
+      return runTools( input, executor, t1 );
+    }
+
+    return CompletableFuture.supplyAsync( new Supplier<CacheLookup>() {
+      public CacheLookup get() {
+        return lookupCache( input );
+      }
+    }, executor ).thenCompose( new Function<CacheLookup, CompletionStage<FitsOutput>>() {
+      public CompletionStage<FitsOutput> apply( final CacheLookup lookup ) {
+        if (lookup.output != null) {
+          logger.debug( "Using cached output for " + input.getPath() );
+          // a later examination of the path must not reuse the checksums of this content
+          releaseChecksums( lookup, input );
+          return CompletableFuture.completedFuture( lookup.output );
+        }
+        return runTools( input, executor, t1 ).whenComplete( new BiConsumer<FitsOutput, Throwable>() {
+          public void accept( FitsOutput result, Throwable e ) {
+            releaseChecksums( lookup, input );
+            // the output of a file that a tool failed on is not kept, nor output without its checksums
+            if (e == null && lookup.key != null && result.getCaughtThrowables().isEmpty()) {
+              result.getDeferredChecksums().thenAccept( new Consumer<FitsOutput>() {
+                public void accept( FitsOutput complete ) {
+                  outputCache.put( lookup.key, complete );
+                }
+              } );
+            }
           }
+        } );
+      }
+    } );
+  }
+
+  /*
+   * Runs the tools against a file and consolidates their output.
+   */
+  private CompletableFuture<FitsOutput> runTools( final File input, Executor executor, final long t1 ) {
+    String path = input.getPath().toLowerCase();
+    final String ext = path.substring( path.lastIndexOf( "." ) + 1 );
+
+    // the start of the file is read once for the router and all tools running in this JVM
+    final FileContext context = new FileContext( input, contextHeaderBytes, contextTailBytes, contextMemoryMap );
+
+    // when routing is enabled the format of the file header may decide which tools run
+    Set<String> routedTools = null;
+    if (toolbelt.getToolRouter() != null) {
+      routedTools = toolbelt.getToolRouter().route( context );
+    }
+
+    // Each tool writes only to its own slot so no state is shared between threads or between calls
+    List<Tool> tools = toolbelt.getTools();
+    final ToolResult[] results = new ToolResult[tools.size()];
+    final Map<Tool, ToolRun> toolRuns = new LinkedHashMap<Tool, ToolRun>();
+    for (int i = 0; i < tools.size(); i++) {
+      final Tool t = tools.get( i );
+      if (toolbelt.getInstantiationError( t ) != null) {
+        // report the failure of a tool that could not be instantiated
+        results[i] = t.run( input );
+      } else if (t.isEnabled()) {
+
+        RunStatus runStatus;
+        if (routedTools != null) {
+          runStatus = routedTools.contains( t.getName() ) ? RunStatus.SHOULDRUN : RunStatus.SHOULDNOTRUN;
+        } else {
+          runStatus = getRunStatus( t, ext );
         }
-        // if the tool does not have an include-exts or exclude-exts list then
-        // run
-        else if (!t.hasIncludedExtensions() && !t.hasExcludedExtensions()) {
-          runStatus = RunStatus.SHOULDRUN;
+        results[i] = new ToolResult( t, runStatus );
+
+        if (runStatus == RunStatus.SHOULDRUN) {
+          toolRuns.put( t, new ToolRun( t, i ) );
         }
+      } else {
+        results[i] = new ToolResult( t, null );
+      }
+    }
 
-        t.setRunStatus( runStatus );
+    // start the tools that do not depend on another tool running against this file
+    List<ToolRun> dependentRuns = new ArrayList<ToolRun>();
+    for (ToolRun toolRun : toolRuns.values()) {
+      if (hasRunningDependency( toolRun.tool, toolRuns )) {
+        dependentRuns.add( toolRun );
+      } else {
+        startTool( toolRun, input, context, Collections.<ToolIdentity>emptyList() );
+      }
+    }
 
-        if (runStatus == RunStatus.SHOULDRUN) {
-          // Don't exceed the maximum thread count
-          while (countActiveTools( threads ) >= maxThreads) {
-            try {
-              Thread.sleep( 200 );
-            } catch (InterruptedException e) {
-            }
-          }
-          // spin up new threads
-          t.setInputFile( input );
-          // GDM 16-Nov-12: Name the threads as a debugging aid
-          Thread thread = new Thread( t, t.getToolInfo().getName() );
-          threads.add( thread );
-          logger.debug( "Starting thread " + thread.getName() );
-          thread.start();
+    // chain each remaining tool on the tools it depends on, passing on their identification.
+    // The dependencies form a directed acyclic graph so there is always a tool whose dependencies are chained.
+    while (!dependentRuns.isEmpty()) {
+      ToolRun next = null;
+      for (ToolRun toolRun : dependentRuns) {
+        if (dependenciesStarted( toolRun.tool, toolRuns )) {
+          next = toolRun;
+          break;
         }
       }
+      chainTool( next, input, context, toolRuns );
+      dependentRuns.remove( next );
     }
 
-    // wait for them all to finish
-    for (Thread thread : threads) {
+    // consolidate once every tool has finished or been given up on
+    List<CompletableFuture<ToolResult>> toolFutures = new ArrayList<CompletableFuture<ToolResult>>();
+    for (ToolRun toolRun : toolRuns.values()) {
+      toolFutures.add( toolRun.result );
+    }
+    CompletableFuture<Void> allTools = CompletableFuture.allOf( toolFutures.toArray( new CompletableFuture<?>[toolFutures.size()] ) );
+    return allTools.thenApplyAsync( new Function<Void, FitsOutput>() {
+      public FitsOutput apply( Void v ) {
+        for (ToolRun toolRun : toolRuns.values()) {
+          results[toolRun.index] = toolRun.result.join();
+        }
+        try {
+          context.close();
+        } catch (IOException e) {
+          logger.warn( "Could not close " + input.getPath() + ": " + e.getMessage() );
+        }
+        return consolidate( input, ext, results, t1 );
+      }
+    }, executor );
+  }
+
+  /**
+   * Examines a batch of files, with up to process.max-files-in-flight files being
+   * examined at the same time, or as many as the adaptive limit allows when
+   * process.adaptive is enabled.
+   *
+   * @param paths The files to examine.
+   * @return The results, produced as they are consumed.
+   * @see #examineAll(Iterator, int)
+   */
+  public Iterator<FitsBatchResult> examineAll( Iterator<Path> paths ) {
+    if (adaptive != null) {
+      return new FitsBatchIterator( this, paths, adaptive.getFileLimit(), maxBytesInFlight );
+    }
+    return examineAll( paths, maxFilesInFlight );
+  }
+
+  /**
+   * Examines a batch of files with the tools of this instance. Files are taken from
+   * paths only as the results are consumed, so that at most maxFilesInFlight files,
+   * with a combined size of at most process.max-bytes-in-flight, are being examined
+   * or waiting to be consumed. The tools of the next files start while those of the
+   * earlier files finish. Results are returned in the order the files finish; a file
+   * that cannot be examined gives a result with an error rather than ending the batch.
+   * <p>
+   * The returned iterator must be consumed by a single thread. Several batches, and
+   * calls to examine(), can share this instance at the same time.
+   *
+   * @param paths The files to examine.
+   * @param maxFilesInFlight The maximum number of files examined at the same time.
+   * @return The results, produced as they are consumed.
+   */
+  public Iterator<FitsBatchResult> examineAll( Iterator<Path> paths, int maxFilesInFlight ) {
+    return new FitsBatchIterator( this, paths, new ConcurrencyLimit( Math.max( 1, maxFilesInFlight ) ), maxBytesInFlight );
+  }
+
+  /*
+   * Hashes the content of a file and looks up its output in the cache. The checksums
+   * FileInfo reports are computed in the same pass and handed to it so that the file
+   * is read once.
+   */
+  private CacheLookup lookupCache( File input ) {
+    CacheLookup lookup = new CacheLookup();
+    try {
+      MessageDigest sha = MessageDigest.getInstance( "SHA-256" );
+      // the checksums FileInfo reports are computed in the same read, unless already known
+      List<ChecksumAlgorithm> algorithms = getPrecomputedChecksums( input ) == null
+          ? getChecksumAlgorithms() : new ArrayList<ChecksumAlgorithm>();
+      MessageDigest[] digests = newDigests( algorithms );
+      InputStream in = new FileInputStream( input );
       try {
-        thread.join();
-      } catch (InterruptedException e) {
-        logger.error("Caught exception while waiting for tools to finish running: " + e.getMessage(), e);
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read( buffer )) != -1) {
+          sha.update( buffer, 0, n );
+          for (MessageDigest digest : digests) {
+            digest.update( buffer, 0, n );
+          }
+        }
+      } finally {
+        in.close();
+      }
+      sha.update( cacheEnvironment.getBytes( StandardCharsets.UTF_8 ) );
+      lookup.key = toHex( sha.digest() );
+      Map<ChecksumAlgorithm, String> checksums = toChecksums( algorithms, digests );
+      if (checksums != null) {
+        lookup.checksumsRegistered = spooledChecksums.putIfAbsent( input.getAbsolutePath(), checksums ) == null;
       }
+    } catch (IOException | NoSuchAlgorithmException | FitsException e) {
+      logger.warn( "Could not hash " + input.getPath() + " for the output cache: " + e.getMessage() );
+      return lookup;
+    }
+    lookup.output = outputCache.get( lookup.key );
+    if (lookup.output != null) {
+      lookup.output.updateFileInfo( input );
+      lookup.output.setCached( true );
     }
+    return lookup;
+  }
+
+  /* Removes the checksums registered by lookupCache() once the examination no longer needs them */
+  private void releaseChecksums( CacheLookup lookup, File input ) {
+    if (lookup.checksumsRegistered) {
+      spooledChecksums.remove( input.getAbsolutePath() );
+    }
+  }
+
+  /*
+   * The outcome of looking up a file in the output cache.
+   */
+  private static class CacheLookup {
+    // null if the file could not be hashed
+    String key;
+    FitsOutput output;
+    // true if the checksums computed while hashing must be removed after the examination
+    boolean checksumsRegistered;
+  }
 
-    // get all output from the tools
-    for (Tool t : toolbelt.getTools()) {
-      toolResults.add( t.getOutput() );
-      if (t.getCaughtThrowable() != null) {
-    	  caughtThrowables.add( t.getCaughtThrowable() );
+  /*
+   * Consolidates the results of the tools run against a file into a single DOM.
+   */
+  private FitsOutput consolidate( File input, String ext, ToolResult[] results, long t1 ) {
+    // get all output from the tools, catching exceptions thrown by tools
+    List<Throwable> caughtThrowables = new ArrayList<Throwable>();
+    List<ToolResult> toolResults = Arrays.asList( results );
+    List<ToolOutput> toolOutputs = new ArrayList<ToolOutput>();
+    for (ToolResult toolResult : toolResults) {
+      toolOutputs.add( toolResult.getOutput() );
+      if (toolResult.getCaughtThrowable() != null) {
+    	  caughtThrowables.add( toolResult.getCaughtThrowable() );
       }
     }
 
     // consolidate the results into a single DOM
-    FitsOutput result = consolidator.processResults( toolResults );
+    FitsOutput result = consolidator.processResults( toolOutputs );
     result.setCaughtThrowables( caughtThrowables );
 
     long t2 = System.currentTimeMillis();
     if (enableStatistics) {
-      result.createStatistics( toolbelt, ext, t2 - t1 );
+      result.createStatistics( toolResults, ext, t2 - t1 );
     }
 
-    if (resetToolOutput) {
-    	for (Tool t : toolbelt.getTools()) {
-    		t.resetOutput();
-    	}
+    if (adaptive != null) {
+      adaptive.fileFinished();
+      if (enableStatistics) {
+        result.addConcurrencyStatistics( adaptive.getFileLimit().getLimit(), adaptive.getToolLimit().getLimit() );
+      }
+    }
+
+    if (!resetToolOutput) {
+      result.setToolResults( toolResults );
     }
 
     if (result.getCaughtThrowables().size() > 0) {
@@ -678,21 +1687,367 @@ public class Fits {
         }
       }
 
+    addDeferredOutput( input, result, toolOutputs );
     return result;
   }
 
+  /*
+   * Adds the output that tools are still computing, such as deferred checksums,
+   * to the consolidated output once it is complete.
+   */
+  private void addDeferredOutput( final File input, final FitsOutput result, List<ToolOutput> toolOutputs ) {
+    final List<ToolOutput> deferredOutputs = new ArrayList<ToolOutput>();
+    List<CompletableFuture<Document>> deferredXml = new ArrayList<CompletableFuture<Document>>();
+    for (ToolOutput toolOutput : toolOutputs) {
+      if (toolOutput != null && toolOutput.getDeferredFitsXml() != null) {
+        deferredOutputs.add( toolOutput );
+        deferredXml.add( toolOutput.getDeferredFitsXml() );
+      }
+    }
+    if (deferredOutputs.isEmpty()) {
+      return;
+    }
+    final CompletableFuture<FitsOutput> checksums = new CompletableFuture<FitsOutput>();
+    CompletableFuture.allOf( deferredXml.toArray( new CompletableFuture<?>[deferredXml.size()] ) )
+        .whenComplete( new BiConsumer<Void, Throwable>() {
+          public void accept( Void v, Throwable e ) {
+            if (e != null) {
+              Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+              logger.error( "Could not compute the deferred output of " + input.getName() + ": " + cause.getMessage(), cause );
+              checksums.completeExceptionally( new FitsException( "Could not compute the deferred output of " + input.getPath(), cause ) );
+              return;
+            }
+            // under the lock of the output so that a copy taken meanwhile has all or none of the checksums
+            synchronized (result) {
+              for (ToolOutput toolOutput : deferredOutputs) {
+                result.addToolElements( toolOutput.getTool().getToolInfo(), toolOutput.getDeferredFitsXml().join() );
+              }
+            }
+            checksums.complete( result );
+          }
+        } );
+    result.setDeferredChecksums( checksums );
+  }
+
+  /*
+   * Queues a tool on the shared executor once the tool may run, without blocking the caller
+   * or a pool thread: the tool's max-concurrency and pool-size, then the adaptive limit on
+   * running tools, are acquired asynchronously before the run is handed to the executor.
+   * The result of the run completes toolRun.result, which never completes exceptionally.
+   */
+  private void startTool( final ToolRun toolRun, final File input, final FileContext context, final List<ToolIdentity> identityHints ) {
+    final Tool t = toolRun.tool;
+    logger.debug( "Queueing tool " + t.getToolInfo().getName() );
+    toolRun.queued = true;
+    toolbelt.acquire( t ).thenCompose( new Function<Tool, CompletableFuture<Tool>>() {
+      public CompletableFuture<Tool> apply( final Tool instance ) {
+        toolRun.limitTime = System.currentTimeMillis();
+        return acquireToolLimit().thenApply( new Function<Void, Tool>() {
+          public Tool apply( Void granted ) {
+            return instance;
+          }
+        } );
+      }
+    } ).thenAccept( new Consumer<Tool>() {
+      public void accept( Tool instance ) {
+        executeTool( toolRun, instance, input, context, identityHints );
+      }
+    } );
+  }
+
+  /*
+   * Runs a tool on the shared executor with the instance and limits acquired by startTool(),
+   * releasing them when the run finishes.
+   */
+  private void executeTool( final ToolRun toolRun, final Tool instance, final File input, final FileContext context,
+      final List<ToolIdentity> identityHints ) {
+    final Tool t = toolRun.tool;
+    FutureTask<Void> task = new FutureTask<Void>( new Runnable() {
+      public void run() {
+        toolRun.startTime = System.currentTimeMillis();
+        ScheduledFuture<?> timeout = scheduleTimeout( toolRun );
+        try {
+          ToolResult toolResult = instance.run( input, identityHints, context );
+          toolResult.setQueueTime( toolRun.startTime - toolRun.submitTime );
+          toolRun.result.complete( toolResult );
+        } catch (Throwable e) {
+          logger.error( "Caught exception while running " + t.getToolInfo().getName() + ": " + e.getMessage(), e );
+          ToolResult toolResult = new ToolResult( t, RunStatus.FAILED );
+          toolResult.setCaughtThrowable( e );
+          toolRun.result.complete( toolResult );
+        } finally {
+          if (timeout != null) {
+            timeout.cancel( false );
+          }
+          toolbelt.release( t, instance );
+          releaseToolLimit();
+          if (adaptive != null) {
+            // the wait for the adaptive limit is what raising the limit would shorten
+            adaptive.toolFinished( toolRun.startTime - toolRun.limitTime, System.currentTimeMillis() - toolRun.startTime );
+          }
+        }
+      }
+    }, null );
+    toolRun.task = task;
+    toolRun.submitTime = System.currentTimeMillis();
+    try {
+      toolExecutor.execute( task );
+    } catch (RejectedExecutionException e) {
+      toolbelt.release( t, instance );
+      releaseToolLimit();
+      ToolResult toolResult = new ToolResult( t, RunStatus.FAILED );
+      toolResult.setCaughtThrowable( e );
+      toolRun.result.complete( toolResult );
+    }
+  }
+
+  /* Asks for the adaptive limit on running tools, if enabled, without waiting for it */
+  private CompletableFuture<Void> acquireToolLimit() {
+    if (adaptive != null) {
+      return adaptive.getToolLimit().acquireAsync();
+    }
+    return CompletableFuture.completedFuture( null );
+  }
+
+  private void releaseToolLimit() {
+    if (adaptive != null) {
+      adaptive.getToolLimit().release();
+    }
+  }
+
+  /*
+   * Starts a tool when the tools it depends on have finished, without waiting for them.
+   */
+  private void chainTool( final ToolRun toolRun, final File input, final FileContext context, Map<Tool, ToolRun> toolRuns ) {
+    final List<CompletableFuture<ToolResult>> dependencyResults = new ArrayList<CompletableFuture<ToolResult>>();
+    for (Tool dependency : toolbelt.getDependencies( toolRun.tool )) {
+      ToolRun dependencyRun = toolRuns.get( dependency );
+      if (dependencyRun != null) {
+        dependencyResults.add( dependencyRun.result );
+      }
+    }
+    toolRun.chained = true;
+    CompletableFuture.allOf( dependencyResults.toArray( new CompletableFuture<?>[dependencyResults.size()] ) )
+        .thenRun( new Runnable() {
+          public void run() {
+            List<ToolIdentity> identityHints = new ArrayList<ToolIdentity>();
+            for (CompletableFuture<ToolResult> dependencyResult : dependencyResults) {
+              ToolOutput dependencyOutput = dependencyResult.join().getOutput();
+              if (dependencyOutput != null) {
+                identityHints.addAll( dependencyOutput.getFileIdentity() );
+              }
+            }
+            startTool( toolRun, input, context, Collections.unmodifiableList( identityHints ) );
+          }
+        } );
+  }
+
+  /*
+   * Gives up on a tool with a timeout-ms once it has run that long; time spent waiting
+   * in the queue does not count. Returns null if the tool has no timeout.
+   */
+  private ScheduledFuture<?> scheduleTimeout( final ToolRun toolRun ) {
+    final long timeout = toolbelt.getTimeout( toolRun.tool );
+    if (timeout <= 0) {
+      return null;
+    }
+    return timeoutScheduler.schedule( new Runnable() {
+      public void run() {
+        String toolName = toolRun.tool.getToolInfo().getName();
+        ToolResult timedOut = new ToolResult( toolRun.tool, RunStatus.TIMED_OUT );
+        timedOut.setDuration( System.currentTimeMillis() - toolRun.startTime );
+        timedOut.setQueueTime( toolRun.startTime - toolRun.submitTime );
+        timedOut.setCaughtThrowable( new FitsToolException( toolName + " timed out after " + timeout + " ms" ) );
+        // interrupt the tool; the results of the other tools are still consolidated
+        if (toolRun.result.complete( timedOut )) {
+          toolRun.task.cancel( true );
+        }
+      }
+    }, timeout, TimeUnit.MILLISECONDS );
+  }
+
+  /* True if any tool that t depends on is going to run against the current file */
+  private boolean hasRunningDependency( Tool t, Map<Tool, ToolRun> toolRuns ) {
+    for (Tool dependency : toolbelt.getDependencies( t )) {
+      if (toolRuns.containsKey( dependency )) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /* True if every tool that t depends on has been queued or chained, or is not going to run */
+  private boolean dependenciesStarted( Tool t, Map<Tool, ToolRun> toolRuns ) {
+    for (Tool dependency : toolbelt.getDependencies( t )) {
+      ToolRun dependencyRun = toolRuns.get( dependency );
+      if (dependencyRun != null && !dependencyRun.queued && !dependencyRun.chained) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Tracks one tool run by examineAsync().
+   */
+  private static class ToolRun {
+    final Tool tool;
+    final int index;
+    // completed by the tool, or by the timeout if the tool runs too long
+    final CompletableFuture<ToolResult> result = new CompletableFuture<ToolResult>();
+    // when the tool was handed to the executor
+    volatile long submitTime;
+    // when the tool was granted its own limits and asked for the adaptive limit
+    volatile long limitTime;
+    volatile long startTime;
+    // set when the tool is handed to the executor
+    volatile Future<Void> task;
+    // set when the tool is waiting for a limit or for the executor
+    boolean queued;
+    // set when the tool is waiting for the tools it depends on
+    boolean chained;
+
+    ToolRun( Tool tool, int index ) {
+      this.tool = tool;
+      this.index = index;
+    }
+  }
+
+  /*
+   * Figure out if the tool should be run against the file depending on
+   * the include and exclude extension lists.
+   */
+  private RunStatus getRunStatus( Tool t, String ext ) {
+    RunStatus runStatus = RunStatus.SHOULDNOTRUN;
+    // if the tool has an include-exts list and it has the extension in it,
+    // then run
+    if (t.hasIncludedExtensions()) {
+      if (t.hasIncludedExtension( ext )) {
+        runStatus = RunStatus.SHOULDRUN;
+      }
+    }
+    // if the tool has an exclude-exts list and it does NOT have the
+    // extension in it, then run
+    else if (t.hasExcludedExtensions()) {
+      if (!t.hasExcludedExtension( ext )) {
+        runStatus = RunStatus.SHOULDRUN;
+      }
+    }
+    // if the tool does not have an include-exts or exclude-exts list then
+    // run
+    else if (!t.hasIncludedExtensions() && !t.hasExcludedExtensions()) {
+      runStatus = RunStatus.SHOULDRUN;
+    }
+    return runStatus;
+  }
+
   /**
-   * Default is that the output of each tool is reset after gathering the results
+   * Default is that the result of each tool is discarded after gathering the results
    * in the examine() method. This method should only be used for testing purposes.
    *
-   * @param resetToolOutput <code>false</code> will change default functionality of
-   * 		resetting each tool's output after running examine().
-   * @see edu.harvard.hul.ois.fits.tools.Tool#resetOutput()
+   * @param resetToolOutput <code>false</code> will keep the ToolResult of each tool
+   * 		on the FitsOutput returned by examine().
+   * @see edu.harvard.hul.ois.fits.FitsOutput#getToolResults()
    */
   protected void resetToolOutputAfterExaminingInput(boolean resetToolOutput) {
 	  this.resetToolOutput = resetToolOutput;
   }
 
+  /**
+   * Sets the number of files examined at the same time when processing a directory.
+   */
+  public void setMaxFilesInFlight( int maxFilesInFlight ) {
+    this.maxFilesInFlight = Math.max( 1, maxFilesInFlight );
+  }
+
+  /**
+   * Sets the state file used to skip unchanged files in directory mode.
+   */
+  public void setIncrementalFile( File incrementalFile ) {
+    this.incrementalFile = incrementalFile;
+  }
+
+  /**
+   * Returns a hash of the FITS version, the configuration and the name and
+   * version of every tool, which changes whenever the output of an unchanged
+   * file could change.
+   */
+  public String getEnvironmentHash() throws FitsException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+      StringWriter configXml = new StringWriter();
+      config.save( configXml );
+      StringBuilder environment = new StringBuilder( VERSION ).append( '\n' ).append( configXml ).append( '\n' );
+      for (Tool t : toolbelt.getTools()) {
+        environment.append( t.getToolInfo().getName() ).append( ' ' ).append( t.getToolInfo().getVersion() ).append( '\n' );
+      }
+      return toHex( digest.digest( environment.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+    } catch (NoSuchAlgorithmException | ConfigurationException e) {
+      throw new FitsException( "Could not compute the hash of the FITS environment", e );
+    }
+  }
+
+  private static String toHex( byte[] bytes ) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append( String.format( "%02x", b & 0xff ) );
+    }
+    return hex.toString();
+  }
+
+  /**
+   * Returns the cache of FITS output, or null if output.cache is not enabled.
+   */
+  public FitsOutputCache getOutputCache() {
+    return outputCache;
+  }
+
+  /**
+   * Sets the journal used to resume an interrupted run in directory mode.
+   */
+  public void setJournalFile( File journalFile ) {
+    this.journalFile = journalFile;
+  }
+
+  /**
+   * Sets whether the manifests of the BagIt bags found in directory mode are used
+   * for the checksums of their files.
+   */
+  public void setBagMode( boolean bagMode ) {
+    this.bagMode = bagMode;
+  }
+
+  /**
+   * Sets whether the checksums listed in the manifests of bags are verified
+   * against the files instead of being reported as they are.
+   */
+  public void setVerifyManifests( boolean verifyManifests ) {
+    this.verifyManifests = verifyManifests;
+  }
+
+  /**
+   * Sets whether files with the same content are examined once in directory mode.
+   */
+  public void setDeduplicate( boolean deduplicate ) {
+    this.deduplicate = deduplicate;
+  }
+
+  /**
+   * Sets the order in which the files are processed in directory mode.
+   */
+  public void setSchedulePolicy( SchedulePolicy schedulePolicy ) {
+    this.schedulePolicy = schedulePolicy;
+  }
+
+  /**
+   * Stops the threads used to run the tools. No further calls to examine()
+   * can be made on this instance after this method has been called.
+   */
+  public void shutdown() {
+    toolExecutor.shutdown();
+    timeoutScheduler.shutdown();
+  }
+
   public ToolBelt getToolbelt() {
     return toolbelt;
   }
@@ -716,15 +2071,4 @@ public class Fits {
   public boolean validateToolOutput() {
 	  return validateToolOutput;
   }
-  
-  /* Count up all the threads that are still running */
-  private int countActiveTools( List<Thread> threads ) {
-    int count = 0;
-    for (Thread t : threads) {
-      if (t.isAlive()) {
-        ++count;
-      }
-    }
-    return count;
-  }
 }
@@ -0,0 +1,149 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hul.ois.fits.exceptions.FitsException;
+
+/**
+ * The iterator returned by Fits.examineAll(). Files are taken from the input
+ * only as results are consumed, and at most maxFiles files, with a combined
+ * size of at most maxBytes, are queued or waiting to be consumed at any time.
+ * While the tools of one file finish, the tools of the next files are already
+ * running. Results are returned in the order the files finish.
+ * <p>
+ * The iterator is meant to be consumed by a single thread.
+ */
+class FitsBatchIterator implements Iterator<FitsBatchResult> {
+
+	private static final Logger logger = Logger.getLogger(FitsBatchIterator.class);
+
+	private final Fits fits;
+	private final Iterator<Path> paths;
+	private final ConcurrencyLimit maxFiles;
+	private final long maxBytes;
+	private final BlockingQueue<FitsBatchResult> finished = new LinkedBlockingQueue<FitsBatchResult>();
+
+	// Files queued and not yet returned by next(), and their combined size
+	private int filesInFlight;
+	private long bytesInFlight;
+	// The next file, taken from the input but waiting for room under maxBytes
+	private Path pending;
+	private long pendingSize;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fits     The instance whose tools examine the files.
+	 * @param paths    The files to examine.
+	 * @param maxFiles The maximum number of files in flight, which may change during the batch.
+	 * @param maxBytes The maximum combined size of the files in flight, 0 for no limit.
+	 *                 A single file larger than this is still examined on its own.
+	 */
+	FitsBatchIterator(Fits fits, Iterator<Path> paths, ConcurrencyLimit maxFiles, long maxBytes) {
+		this.fits = fits;
+		this.paths = paths;
+		this.maxFiles = maxFiles;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public boolean hasNext() {
+		fill();
+		return filesInFlight > 0;
+	}
+
+	@Override
+	public FitsBatchResult next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		FitsBatchResult result;
+		try {
+			result = finished.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a file to be examined", e);
+		}
+		filesInFlight--;
+		bytesInFlight -= result.getSize();
+		return result;
+	}
+
+	/* Queues files from the input until a limit is reached */
+	private void fill() {
+		while (filesInFlight < maxFiles.getLimit()) {
+			if (pending == null) {
+				if (!paths.hasNext()) {
+					return;
+				}
+				pending = paths.next();
+				pendingSize = sizeOf(pending);
+			}
+			if (filesInFlight > 0 && maxBytes > 0 && bytesInFlight + pendingSize > maxBytes) {
+				return;
+			}
+			start(pending, pendingSize);
+			pending = null;
+		}
+	}
+
+	private void start(final Path path, final long size) {
+		filesInFlight++;
+		bytesInFlight += size;
+		logger.debug("Queueing " + path + " with " + filesInFlight + " files in flight");
+		try {
+			fits.examineAsync(path.toFile()).whenComplete(new BiConsumer<FitsOutput, Throwable>() {
+				public void accept(FitsOutput output, Throwable e) {
+					if (e == null) {
+						finished.add(new FitsBatchResult(path, size, output, null));
+					} else {
+						finished.add(new FitsBatchResult(path, size, null, toFitsException(path, e)));
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// e.g. a path that is not on the default file system
+			finished.add(new FitsBatchResult(path, size, null, toFitsException(path, e)));
+		}
+	}
+
+	private static long sizeOf(Path path) {
+		try {
+			return Files.size(path);
+		} catch (IOException | RuntimeException e) {
+			// reported when the file is examined
+			return 0;
+		}
+	}
+
+	private static FitsException toFitsException(Path path, Throwable e) {
+		if (e instanceof CompletionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		if (e instanceof FitsException) {
+			return (FitsException) e;
+		}
+		return new FitsException("Error examining " + path, e);
+	}
+
+}
@@ -0,0 +1,64 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.nio.file.Path;
+
+import edu.harvard.hul.ois.fits.exceptions.FitsException;
+
+/**
+ * The outcome of examining one file of a batch passed to Fits.examineAll():
+ * the path together with either its output or the error that prevented it
+ * from being examined.
+ */
+public class FitsBatchResult {
+
+	private final Path path;
+	// Size of the file when it was queued, counted against max-bytes-in-flight
+	private final long size;
+	private final FitsOutput output;
+	private final FitsException error;
+
+	FitsBatchResult(Path path, long size, FitsOutput output, FitsException error) {
+		this.path = path;
+		this.size = size;
+		this.output = output;
+		this.error = error;
+	}
+
+	/** Returns the path as it was passed to examineAll() */
+	public Path getPath() {
+		return path;
+	}
+
+	long getSize() {
+		return size;
+	}
+
+	/** Returns the output of the examination, or null if it failed */
+	public FitsOutput getOutput() {
+		return output;
+	}
+
+	/** Returns the reason the file could not be examined, or null if it succeeded */
+	public FitsException getError() {
+		return error;
+	}
+
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	public String toString() {
+		return "FitsBatchResult[" + path + (error == null ? "" : ", " + error.getMessage()) + "]";
+	}
+
+}
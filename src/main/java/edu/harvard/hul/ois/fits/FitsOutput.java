@@ -11,6 +11,7 @@
 package edu.harvard.hul.ois.fits;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -19,6 +20,7 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -39,10 +41,9 @@ import edu.harvard.hul.ois.fits.exceptions.FitsException;
 import edu.harvard.hul.ois.fits.identity.ExternalIdentifier;
 import edu.harvard.hul.ois.fits.identity.FitsIdentity;
 import edu.harvard.hul.ois.fits.identity.FormatVersion;
-import edu.harvard.hul.ois.fits.tools.Tool;
 import edu.harvard.hul.ois.fits.tools.Tool.RunStatus;
-import edu.harvard.hul.ois.fits.tools.ToolBelt;
 import edu.harvard.hul.ois.fits.tools.ToolInfo;
+import edu.harvard.hul.ois.fits.tools.ToolResult;
 import edu.harvard.hul.ois.ots.schemas.AES.AudioObject;
 import edu.harvard.hul.ois.ots.schemas.ContainerMD.ContainerMd;
 import edu.harvard.hul.ois.ots.schemas.DocumentMD.DocumentMD;
@@ -63,8 +64,11 @@ public class FitsOutput {
 
 	private Document fitsXml;          // This is in the FITS XML format
 	private List<Throwable> caughtThrowables = new ArrayList<Throwable>();
+	private List<ToolResult> toolResults = new ArrayList<ToolResult>();
 	private Namespace ns = Namespace.getNamespace(Fits.XML_NAMESPACE);
 	private XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+	// completed once the checksums computed after consolidation are added, null if there are none
+	private CompletableFuture<FitsOutput> deferredChecksums;
 
     private static final Logger logger = Logger.getLogger(FitsOutput.class);
 
@@ -95,6 +99,53 @@ public class FitsOutput {
 		this.caughtThrowables = caughtThrowables;
 	}
 
+	/**
+	 * Returns the result of each tool that was used to create this output.
+	 * This is empty unless the tool results were kept for testing purposes.
+	 */
+	public List<ToolResult> getToolResults() {
+		return toolResults;
+	}
+
+	public void setToolResults(List<ToolResult> toolResults) {
+		this.toolResults = toolResults;
+	}
+
+	/**
+	 * Returns a future completed with this output once the checksums that are
+	 * computed after the other tools have finished, when output.deferred-checksum
+	 * is enabled, have been added to it. It is completed exceptionally with a
+	 * FitsException if they could not be computed. The XML must not be read
+	 * while the checksums are pending, other than through copy().
+	 */
+	public CompletableFuture<FitsOutput> getDeferredChecksums() {
+		if (deferredChecksums == null) {
+			return CompletableFuture.completedFuture(this);
+		}
+		return deferredChecksums;
+	}
+
+	public void setDeferredChecksums(CompletableFuture<FitsOutput> deferredChecksums) {
+		this.deferredChecksums = deferredChecksums;
+	}
+
+	/**
+	 * Returns a copy of this output with its own XML, which may be read and
+	 * changed while the deferred checksums are added to this output. The
+	 * checksums are added while holding the lock of this output, so the copy
+	 * has either all or none of them.
+	 */
+	public synchronized FitsOutput copy() {
+		FitsOutput copy = new FitsOutput((Document) fitsXml.clone());
+		copy.setCaughtThrowables(caughtThrowables);
+		return copy;
+	}
+
+	/** Returns true if checksums are still to be added to this output */
+	public boolean hasPendingChecksums() {
+		return deferredChecksums != null && !deferredChecksums.isDone();
+	}
+
 	@SuppressWarnings("unchecked")
 	public List<FitsMetadataElement> getFileInfoElements() {
 		Element root = fitsXml.getRootElement();
@@ -427,33 +478,40 @@ public class FitsOutput {
 		return identities;
 	}
 
-	public void createStatistics(ToolBelt toolBelt, String ext, long totalExecutionTime) {
+	public void createStatistics(List<ToolResult> toolResults, String ext, long totalExecutionTime) {
 		Element root = fitsXml.getRootElement();
 		Element statistics = new Element("statistics",ns);
 
-		for(Tool t: toolBelt.getTools()) {
+		for(ToolResult result : toolResults) {
 
 			//if the tool should have been used for the file, else ignore it because it did not run
-			ToolInfo info = t.getToolInfo();
+			ToolInfo info = result.getTool().getToolInfo();
 			Element tool = new Element("tool",ns);
 			tool.setAttribute("toolname", info.getName());
 			tool.setAttribute("toolversion", info.getVersion());
 
 			//if the tool ran successfully then output the execution time
-			if(t.getRunStatus() == RunStatus.SUCCESSFUL) {
-				tool.setAttribute("executionTime",String.valueOf(t.getDuration()));
+			if(result.getRunStatus() == RunStatus.SUCCESSFUL) {
+				tool.setAttribute("executionTime",String.valueOf(result.getDuration()));
+				//time spent waiting for a free thread, reported separately from the run time
+				tool.setAttribute("queueTime",String.valueOf(result.getQueueTime()));
 			}
 			//else if the tool should have run but never changed to a successful state
-			else if (t.getRunStatus() == RunStatus.SHOULDRUN){
+			else if (result.getRunStatus() == RunStatus.SHOULDRUN){
 				tool.setAttribute("status","failed");
 			}
 			//else if the tool should have run but never changed to a successful state
-			else if (t.getRunStatus() == RunStatus.SHOULDNOTRUN){
+			else if (result.getRunStatus() == RunStatus.SHOULDNOTRUN){
 				tool.setAttribute("status","did not run");
 			}
-			else if (t.getRunStatus() == RunStatus.FAILED){
+			else if (result.getRunStatus() == RunStatus.FAILED){
 				tool.setAttribute("status","failed");
 			}
+			//the tool was abandoned after running longer than its timeout
+			else if (result.getRunStatus() == RunStatus.TIMED_OUT){
+				tool.setAttribute("executionTime",String.valueOf(result.getDuration()));
+				tool.setAttribute("status","timed out");
+			}
 
 			statistics.addContent(tool);
 
@@ -464,6 +522,85 @@ public class FitsOutput {
 
 	}
 	
+	/**
+	 * Replaces the elements of the fileinfo section that describe the file rather
+	 * than its content, for output made from another file with the same content.
+	 *
+	 * @param file The file the output is for.
+	 */
+	public void updateFileInfo(File file) {
+		Element fileinfo = fitsXml.getRootElement().getChild("fileinfo", ns);
+		if (fileinfo == null) {
+			return;
+		}
+		setFileInfoValue(fileinfo, "filepath", file.getAbsolutePath());
+		setFileInfoValue(fileinfo, "filename", file.getName());
+		setFileInfoValue(fileinfo, "fslastmodified", String.valueOf(file.lastModified()));
+	}
+
+	/* Sets the text of each fileinfo element with the name, keeping its tool attributes */
+	private void setFileInfoValue(Element fileinfo, String name, String value) {
+		@SuppressWarnings("unchecked")
+		List<Element> elements = fileinfo.getChildren(name, ns);
+		for (Element element : elements) {
+			element.setText(value);
+		}
+	}
+
+	/**
+	 * Adds the elements of each section of FITS XML produced by a tool after
+	 * consolidation, such as deferred checksums, to the same sections of this
+	 * output as the single result of the tool.
+	 *
+	 * @param info The tool that produced the XML.
+	 * @param toolFitsXml The FITS XML of the tool.
+	 */
+	public void addToolElements(ToolInfo info, Document toolFitsXml) {
+		Element root = fitsXml.getRootElement();
+		for (Object child : toolFitsXml.getRootElement().getChildren()) {
+			Element section = (Element) child;
+			Element target = root.getChild(section.getName(), ns);
+			if (target == null) {
+				target = new Element(section.getName(), ns);
+				root.addContent(target);
+			}
+			for (Object grandchild : section.getChildren()) {
+				Element element = (Element) ((Element) grandchild).clone();
+				element.setAttribute("toolname", info.getName());
+				element.setAttribute("toolversion", info.getVersion());
+				element.setAttribute("status", "SINGLE_RESULT");
+				target.addContent(element);
+			}
+		}
+	}
+
+	/**
+	 * Marks the output as taken from the cache of FITS output rather than
+	 * produced by running the tools.
+	 */
+	public void setCached(boolean cached) {
+		if (cached) {
+			fitsXml.getRootElement().setAttribute("cached", "true");
+		} else {
+			fitsXml.getRootElement().removeAttribute("cached");
+		}
+	}
+
+	/**
+	 * Adds the concurrency limits in effect when the file was examined to the
+	 * statistics element, when the limits are tuned by process.adaptive.
+	 *
+	 * @param filesInFlight The limit on the number of files examined at the same time.
+	 * @param toolThreads The limit on the number of tools running at the same time.
+	 */
+	public void addConcurrencyStatistics(int filesInFlight, int toolThreads) {
+		Element statistics = fitsXml.getRootElement().getChild("statistics", ns);
+		if (statistics != null) {
+			statistics.setAttribute("filesInFlightLimit", String.valueOf(filesInFlight));
+			statistics.setAttribute("toolThreadLimit", String.valueOf(toolThreads));
+		}
+	}
+
 	/**
 	 * This is the version of FITS that created the input file of this instance.
 	 * @return The FITS version of the input file.
@@ -0,0 +1,205 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.jdom.Document;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+/**
+ * An on-disk cache of consolidated FITS output, keyed by a digest of the
+ * content of the file and of the FITS environment, as set by the output.cache
+ * element in fits.xml. Entries are stored as gzipped XML files in a single
+ * directory and the least recently used entries are removed once the total
+ * size exceeds the configured maximum.
+ * <p>
+ * The cache needs nothing besides the directory, so it works with FITS used
+ * as a library. The last modified time of an entry records its last use so
+ * that the order of use survives a restart.
+ */
+public class FitsOutputCache {
+
+	private static final Logger logger = Logger.getLogger(FitsOutputCache.class);
+
+	private static final String SUFFIX = ".xml.gz";
+	// Fraction of the maximum size kept when entries are removed
+	private static final double EVICT_TO = 0.9;
+
+	private final File directory;
+	private final long maxBytes;
+	// Size of each entry by key, least recently used first
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long totalBytes;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Opens the cache, creating the directory if needed.
+	 *
+	 * @param directory The directory holding the entries.
+	 * @param maxBytes The maximum total size of the entries.
+	 * @throws IOException If the directory cannot be created.
+	 */
+	public FitsOutputCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create cache directory " + directory.getPath());
+		}
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File a, File b) {
+					return Long.compare(a.lastModified(), b.lastModified());
+				}
+			});
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(SUFFIX)) {
+					entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+					totalBytes += file.length();
+				}
+			}
+		}
+		logger.info("FITS output cache " + directory.getPath() + " holds " + entries.size() + " entries, " + totalBytes + " bytes");
+	}
+
+	/**
+	 * Returns the cached output for a key.
+	 *
+	 * @param key The digest of the file content and the FITS environment.
+	 * @return A new copy of the output, or null if none is cached.
+	 */
+	public FitsOutput get(String key) {
+		File file = entryFile(key);
+		synchronized (this) {
+			if (entries.get(key) == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		try {
+			InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				Document doc = new SAXBuilder().build(in);
+				file.setLastModified(System.currentTimeMillis());
+				return new FitsOutput(doc);
+			} finally {
+				in.close();
+			}
+		} catch (IOException | JDOMException e) {
+			logger.warn("Removing unreadable cache entry " + file.getPath() + ": " + e.getMessage());
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the output for a key, removing the least recently used entries if
+	 * the cache has grown too large.
+	 */
+	public void put(String key, FitsOutput output) {
+		File file = entryFile(key);
+		File tmp = new File(directory, key + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				new XMLOutputter(Format.getRawFormat()).output(output.getFitsXml(), out);
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			logger.warn("Could not store cache entry " + file.getPath() + ": " + e.getMessage());
+			tmp.delete();
+			return;
+		}
+		List<String> evicted = new ArrayList<String>();
+		synchronized (this) {
+			Long previous = entries.put(key, file.length());
+			totalBytes += file.length() - (previous == null ? 0 : previous);
+			if (totalBytes > maxBytes) {
+				Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+				while (it.hasNext() && totalBytes > maxBytes * EVICT_TO) {
+					Map.Entry<String, Long> entry = it.next();
+					if (entry.getKey().equals(key)) {
+						continue;
+					}
+					totalBytes -= entry.getValue();
+					evicted.add(entry.getKey());
+					it.remove();
+				}
+			}
+		}
+		for (String evictedKey : evicted) {
+			entryFile(evictedKey).delete();
+		}
+		if (!evicted.isEmpty()) {
+			logger.debug("Removed " + evicted.size() + " least recently used cache entries");
+		}
+	}
+
+	private void remove(String key) {
+		synchronized (this) {
+			Long size = entries.remove(key);
+			if (size != null) {
+				totalBytes -= size;
+			}
+		}
+		entryFile(key).delete();
+	}
+
+	private File entryFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** Returns the total size of the entries in bytes */
+	public synchronized long getSize() {
+		return totalBytes;
+	}
+}
@@ -0,0 +1,203 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The state of the previous directory run in incremental mode, as set by the
+ * --incremental option, used to skip the input files that have not changed.
+ * <p>
+ * For every input the state file holds the absolute path, the device and inode
+ * (or the closest file key the file system offers), the size, the last modified
+ * time and the path of the output. The first line holds a hash of the FITS
+ * version, the configuration and the tool versions; if any of them has changed
+ * every file is examined again. The state is rewritten at the end of each run
+ * with the files seen in that run.
+ */
+public class IncrementalState {
+
+	private static final Logger logger = Logger.getLogger(IncrementalState.class);
+
+	private static final String ENVIRONMENT = "environment";
+
+	private final File stateFile;
+	private final String environment;
+	// Entries of the previous run, by absolute path
+	private final Map<String, Entry> previous = new HashMap<String, Entry>();
+	// Entries of this run, by absolute path
+	private final Map<String, Entry> current = new LinkedHashMap<String, Entry>();
+	// true if the previous run had another environment, so no file is unchanged
+	private boolean environmentChanged;
+
+	private static class Entry {
+		final String fileKey;
+		final long size;
+		final long lastModified;
+		final String output;
+
+		Entry(String fileKey, long size, long lastModified, String output) {
+			this.fileKey = fileKey;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.output = output;
+		}
+	}
+
+	/**
+	 * Reads the state of the previous run, if any.
+	 *
+	 * @param stateFile The state file, which need not exist.
+	 * @param environment A hash of everything besides the file that affects the output.
+	 * @throws IOException If the state file cannot be read.
+	 */
+	public IncrementalState(File stateFile, String environment) throws IOException {
+		this.stateFile = stateFile;
+		this.environment = environment;
+		if (stateFile.isFile()) {
+			read();
+		}
+	}
+
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8));
+		try {
+			String line = reader.readLine();
+			if (line == null || !line.startsWith(ENVIRONMENT + "\t")) {
+				return;
+			}
+			if (!line.equals(ENVIRONMENT + "\t" + environment)) {
+				// the entries are still read for their output files, which are replaced
+				logger.info("FITS version, configuration or tool versions changed since the last run, examining all files");
+				environmentChanged = true;
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 5) {
+					continue;
+				}
+				try {
+					previous.put(ProcessingJournal.unescape(fields[0]), new Entry(fields[1], Long.parseLong(fields[2]),
+							Long.parseLong(fields[3]), ProcessingJournal.unescape(fields[4])));
+				} catch (NumberFormatException e) {
+					logger.debug("Ignoring invalid state entry: " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		logger.info("Incremental state " + stateFile.getPath() + " lists " + previous.size() + " files");
+	}
+
+	/**
+	 * Returns the output of the previous run for an input file, if the file
+	 * has not changed since.
+	 *
+	 * @param input The input file.
+	 * @return The previous output file, or null if the file must be examined.
+	 */
+	public File getUnchangedOutput(File input) {
+		Entry entry = previous.get(input.getAbsolutePath());
+		if (entry == null || environmentChanged || entry.size != input.length() || entry.lastModified != input.lastModified()
+				|| !entry.fileKey.equals(fileKey(input))) {
+			return null;
+		}
+		File output = new File(entry.output);
+		return output.isFile() ? output : null;
+	}
+
+	/**
+	 * Returns the output of the previous run for an input file, whether or not
+	 * the file has changed since, so that a changed file's output can be replaced.
+	 *
+	 * @param input The input file.
+	 * @return The previous output file, or null if there is none.
+	 */
+	public File getPreviousOutput(File input) {
+		Entry entry = previous.get(input.getAbsolutePath());
+		if (entry == null) {
+			return null;
+		}
+		File output = new File(entry.output);
+		return output.isFile() ? output : null;
+	}
+
+	/**
+	 * Records the output of an input file in this run.
+	 */
+	public synchronized void record(File input, File output) {
+		current.put(input.getAbsolutePath(), new Entry(fileKey(input), input.length(), input.lastModified(), output.getAbsolutePath()));
+	}
+
+	/**
+	 * Replaces the state file with the files recorded in this run.
+	 */
+	public synchronized void save() throws IOException {
+		File tmp = new File(stateFile.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+		try {
+			writer.write(ENVIRONMENT + "\t" + environment + "\n");
+			for (Map.Entry<String, Entry> e : current.entrySet()) {
+				Entry entry = e.getValue();
+				writer.write(ProcessingJournal.escape(e.getKey()) + "\t" + entry.fileKey + "\t" + entry.size + "\t"
+						+ entry.lastModified + "\t" + ProcessingJournal.escape(entry.output) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		try {
+			Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/*
+	 * Returns the device and inode of the file, or the file key of the file system,
+	 * so that a file replaced by another with the same size and time is noticed.
+	 */
+	static String fileKey(File file) {
+		Path path = file.toPath();
+		try {
+			Map<String, Object> attrs = Files.readAttributes(path, "unix:dev,ino");
+			return attrs.get("dev") + ":" + attrs.get("ino");
+		} catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+			// not a unix file system
+		}
+		try {
+			Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+			if (key != null) {
+				return ProcessingJournal.escape(key.toString());
+			}
+		} catch (IOException e) {
+			logger.debug("Could not read the attributes of " + file.getPath());
+		}
+		return "-";
+	}
+}
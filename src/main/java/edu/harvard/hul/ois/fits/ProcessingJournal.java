@@ -0,0 +1,181 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An append-only record of the input files completed by a directory run, as
+ * set by the --journal option, so that a run which is stopped can be resumed
+ * without examining the completed files again.
+ * <p>
+ * Each line holds the absolute path, size and last modified time of an input
+ * file and the path of its output file, separated by tabs. A file is only
+ * recorded once its output has been written, and is skipped on a later run
+ * while its size and last modified time are unchanged.
+ * <p>
+ * Completed files are written and synced in batches so that the journal does
+ * not slow the run down. If the process dies, only the files of the last batch
+ * are examined again.
+ */
+public class ProcessingJournal {
+
+	private static final Logger logger = Logger.getLogger(ProcessingJournal.class);
+
+	// Entries buffered before they are synced to disk
+	private static final int BATCH_SIZE = 100;
+	// Longest time in milliseconds an entry stays buffered while files are completed
+	private static final long BATCH_INTERVAL = 1000;
+
+	private final File journalFile;
+	// Size and last modified time of the completed files, by absolute path
+	private final Map<String, long[]> completed = new HashMap<String, long[]>();
+	private final StringBuilder buffer = new StringBuilder();
+	private int buffered;
+	private long lastSync = System.currentTimeMillis();
+	private FileOutputStream out;
+	private Writer writer;
+
+	/**
+	 * Opens a journal, reading the files completed by earlier runs. The file
+	 * is created if it does not exist.
+	 *
+	 * @param journalFile The journal file.
+	 * @throws IOException If the journal cannot be read or opened for writing.
+	 */
+	public ProcessingJournal(File journalFile) throws IOException {
+		this.journalFile = journalFile;
+		if (journalFile.isFile()) {
+			read();
+		}
+		out = new FileOutputStream(journalFile, true);
+		writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+	}
+
+	private void read() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length != 4) {
+					// e.g. the last line written before the process died
+					logger.debug("Ignoring incomplete journal entry: " + line);
+					continue;
+				}
+				try {
+					long[] sizeAndTime = { Long.parseLong(fields[1]), Long.parseLong(fields[2]) };
+					completed.put(unescape(fields[0]), sizeAndTime);
+				} catch (NumberFormatException e) {
+					logger.debug("Ignoring invalid journal entry: " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		logger.info("Journal " + journalFile.getPath() + " lists " + completed.size() + " completed files");
+	}
+
+	/**
+	 * Returns true if the file was completed by an earlier run and has not
+	 * changed since.
+	 */
+	public synchronized boolean isCompleted(File input) {
+		long[] sizeAndTime = completed.get(input.getAbsolutePath());
+		return sizeAndTime != null && sizeAndTime[0] == input.length() && sizeAndTime[1] == input.lastModified();
+	}
+
+	/**
+	 * Records a file whose output has been written.
+	 *
+	 * @param input The input file.
+	 * @param output The output file.
+	 * @throws IOException If the journal cannot be written.
+	 */
+	public synchronized void record(File input, File output) throws IOException {
+		buffer.append(escape(input.getAbsolutePath())).append('\t')
+				.append(input.length()).append('\t')
+				.append(input.lastModified()).append('\t')
+				.append(escape(output.getAbsolutePath())).append('\n');
+		buffered++;
+		if (buffered >= BATCH_SIZE || System.currentTimeMillis() - lastSync >= BATCH_INTERVAL) {
+			sync();
+		}
+	}
+
+	/**
+	 * Writes the buffered entries and forces them to disk.
+	 */
+	public synchronized void sync() throws IOException {
+		if (buffered > 0) {
+			writer.write(buffer.toString());
+			writer.flush();
+			out.getFD().sync();
+			buffer.setLength(0);
+			buffered = 0;
+		}
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * Writes the buffered entries and closes the journal.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			writer.close();
+		}
+	}
+
+	// Tabs and line breaks in a path would break the line format
+	static String escape(String path) {
+		return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	static String unescape(String path) {
+		StringBuilder sb = new StringBuilder(path.length());
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '\\' && i + 1 < path.length()) {
+				char next = path.charAt(++i);
+				switch (next) {
+				case 't':
+					sb.append('\t');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				default:
+					sb.append(next);
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,54 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits;
+
+/**
+ * The order in which the files of a directory are examined, as set by
+ * process.schedule-policy in fits.xml or the -s option.
+ */
+public enum SchedulePolicy {
+
+	/** In the order the directory is walked */
+	FIFO("fifo"),
+	/** Largest files first, so that they do not start last and hold up the end of the run */
+	LARGEST_FIRST("largest-first"),
+	/** Most expensive files first, estimated from the file size and the time taken by earlier runs */
+	COST_MODEL("cost-model");
+
+	private final String name;
+
+	private SchedulePolicy(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the policy with the given name.
+	 *
+	 * @param name One of fifo, largest-first or cost-model, ignoring case.
+	 * @return The policy, or null if there is none with the name.
+	 */
+	public static SchedulePolicy forName(String name) {
+		for (SchedulePolicy policy : values()) {
+			if (policy.name.equalsIgnoreCase(name.trim())) {
+				return policy;
+			}
+		}
+		return null;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
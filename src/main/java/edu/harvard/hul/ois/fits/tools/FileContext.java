@@ -0,0 +1,398 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+
+package edu.harvard.hul.ois.fits.tools;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The bytes of one input file shared by the tools that examine it. The first
+ * header-bytes, and optionally the last tail-bytes, of the file are read once
+ * on first use and handed out as read-only buffers, so that tools running in
+ * the FITS JVM do not each open the file to look at its header.
+ * <p>
+ * Other parts of the file are read with positional reads. When memory mapping
+ * is enabled, files of at least MIN_MAPPED_LENGTH bytes are mapped in chunks
+ * of up to 1 GB, so files larger than 2 GB can be mapped too, and reads within
+ * a chunk return a view of the mapping without copying. Otherwise, as on file
+ * systems where mapping is slow, the bytes are read through a heap buffer.
+ * <p>
+ * A new instance is created for every examination and closed once all tools
+ * have run. It is safe to use from the several threads running tools against
+ * the same file.
+ */
+public class FileContext implements Closeable {
+
+	/** Files shorter than this are read rather than mapped, mapping costs more than copying them */
+	public static final int MIN_MAPPED_LENGTH = 1024 * 1024;
+
+	private static final int MAP_CHUNK_SIZE = 1 << 30;
+	// Size of the buffer for reading without a mapping, and of the slices passed to digests
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final File file;
+	private final int headerBytes;
+	private final int tailBytes;
+	private final boolean memoryMap;
+	private final int chunkSize;
+
+	// Opened on first use, guarded by this
+	private FileChannel channel;
+	private boolean closed;
+	private long length = -1;
+	private boolean mapped;
+	private MappedByteBuffer[] chunks;
+	private ByteBuffer header;
+	private ByteBuffer tail;
+
+	/**
+	 * Constructor for a context that reads the file without mapping it.
+	 *
+	 * @param file        The file being examined.
+	 * @param headerBytes The maximum number of bytes to read from the start of the file.
+	 * @param tailBytes   The maximum number of bytes to read from the end of the file, 0 for none.
+	 */
+	public FileContext(File file, int headerBytes, int tailBytes) {
+		this(file, headerBytes, tailBytes, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param file        The file being examined.
+	 * @param headerBytes The maximum number of bytes to read from the start of the file.
+	 * @param tailBytes   The maximum number of bytes to read from the end of the file, 0 for none.
+	 * @param memoryMap   True to map files of at least MIN_MAPPED_LENGTH bytes into memory.
+	 */
+	public FileContext(File file, int headerBytes, int tailBytes, boolean memoryMap) {
+		this(file, headerBytes, tailBytes, memoryMap, MAP_CHUNK_SIZE);
+	}
+
+	/* Constructor with the size of the mapped chunks, for testing files spanning several chunks */
+	FileContext(File file, int headerBytes, int tailBytes, boolean memoryMap, int chunkSize) {
+		this.file = file;
+		this.headerBytes = Math.max(0, headerBytes);
+		this.tailBytes = Math.max(0, tailBytes);
+		this.memoryMap = memoryMap;
+		this.chunkSize = chunkSize;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the length of the file when it was opened.
+	 *
+	 * @throws IOException If the file could not be read.
+	 */
+	public synchronized long getLength() throws IOException {
+		open();
+		return length;
+	}
+
+	/**
+	 * Returns true if the file is read through a memory mapping.
+	 *
+	 * @throws IOException If the file could not be read.
+	 */
+	public synchronized boolean isMapped() throws IOException {
+		open();
+		return mapped;
+	}
+
+	/**
+	 * Returns the first bytes of the file, at most header-bytes of them. Each
+	 * call returns a new read-only buffer positioned at the start of the file.
+	 *
+	 * @throws IOException If the file could not be read.
+	 */
+	public synchronized ByteBuffer getHeader() throws IOException {
+		load();
+		return header.duplicate();
+	}
+
+	/**
+	 * Returns the last bytes of the file, at most tail-bytes of them. Each
+	 * call returns a new read-only buffer; it is empty if no tail is read.
+	 *
+	 * @throws IOException If the file could not be read.
+	 */
+	public synchronized ByteBuffer getTail() throws IOException {
+		load();
+		return tail.duplicate();
+	}
+
+	/**
+	 * Returns true if the header holds the whole file.
+	 *
+	 * @throws IOException If the file could not be read.
+	 */
+	public synchronized boolean isComplete() throws IOException {
+		load();
+		return header.remaining() == length;
+	}
+
+	/**
+	 * Copies up to the given number of bytes from the start of the header.
+	 *
+	 * @param max The maximum number of bytes to copy.
+	 * @return The bytes, fewer than max if the header or the file is shorter.
+	 * @throws IOException If the file could not be read.
+	 */
+	public byte[] getHeaderBytes(int max) throws IOException {
+		ByteBuffer buffer = getHeader();
+		byte[] data = new byte[Math.min(max, buffer.remaining())];
+		buffer.get(data);
+		return data;
+	}
+
+	/**
+	 * Reads bytes from any position of the file. A read within one mapped
+	 * chunk returns a view of the mapping; other reads are copied.
+	 *
+	 * @param position The position in the file of the first byte.
+	 * @param count    The maximum number of bytes to read.
+	 * @return A new read-only buffer, shorter than count at the end of the file.
+	 * @throws IOException If the file could not be read.
+	 */
+	public ByteBuffer read(long position, int count) throws IOException {
+		if (position < 0 || count < 0) {
+			throw new IllegalArgumentException("Invalid read of " + count + " bytes at " + position);
+		}
+		long size = getLength();
+		int n = (int) Math.min(count, Math.max(0, size - position));
+		if (isMapped() && n > 0) {
+			int index = (int) (position / chunkSize);
+			int offset = (int) (position % chunkSize);
+			ByteBuffer chunk = chunk(index);
+			if (offset + n <= chunk.capacity()) {
+				chunk.position(offset);
+				chunk.limit(offset + n);
+				return chunk.slice();
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(n);
+		readFully(buffer, position);
+		buffer.flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Passes the whole file through the given digests in a single read.
+	 *
+	 * @param digests The digests to update.
+	 * @throws IOException If the file could not be read.
+	 */
+	public void digest(MessageDigest... digests) throws IOException {
+		digest(null, digests);
+	}
+
+	/**
+	 * Passes the whole file through the given digests in a single read,
+	 * updating the digests at the same time on the given executor. Each
+	 * slice of the file is passed to all digests before the next is read.
+	 * Large files are read through direct buffers.
+	 *
+	 * @param executor The executor to update all but the first digest on, null to update them in turn.
+	 * @param digests  The digests to update.
+	 * @throws IOException If the file could not be read.
+	 */
+	public void digest(Executor executor, MessageDigest... digests) throws IOException {
+		digest(executor, 0, getLength(), digests);
+	}
+
+	/**
+	 * Passes a range of the file through the given digests in a single read,
+	 * as digest(Executor, MessageDigest...) does for the whole file.
+	 *
+	 * @param executor The executor to update all but the first digest on, null to update them in turn.
+	 * @param position The position in the file of the first byte.
+	 * @param count    The number of bytes, fewer are read at the end of the file.
+	 * @param digests  The digests to update.
+	 * @throws IOException If the file could not be read.
+	 */
+	public void digest(Executor executor, long position, long count, MessageDigest... digests) throws IOException {
+		long end = Math.min(getLength(), position + count);
+		if (isMapped()) {
+			while (position < end) {
+				ByteBuffer chunk = chunk((int) (position / chunkSize));
+				int offset = (int) (position % chunkSize);
+				// feed the digests in slices so that each slice is still cached for the next digest
+				int n = (int) Math.min(Math.min(BUFFER_SIZE, chunk.capacity() - offset), end - position);
+				chunk.limit(offset + n);
+				chunk.position(offset);
+				update(executor, digests, chunk);
+				position += n;
+			}
+		} else {
+			ByteBuffer buffer;
+			if (end - position >= MIN_MAPPED_LENGTH) {
+				buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			} else {
+				buffer = ByteBuffer.allocate((int) Math.max(1, end - position));
+			}
+			while (position < end) {
+				buffer.clear();
+				if (end - position < buffer.capacity()) {
+					buffer.limit((int) (end - position));
+				}
+				readFully(buffer, position);
+				buffer.flip();
+				position += buffer.remaining();
+				update(executor, digests, buffer);
+			}
+		}
+	}
+
+	/**
+	 * Closes the file. Buffers already handed out stay readable; the
+	 * mappings are released once they are no longer referenced.
+	 */
+	public synchronized void close() throws IOException {
+		closed = true;
+		chunks = null;
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	private static void update(Executor executor, MessageDigest[] digests, final ByteBuffer buffer) throws IOException {
+		if (executor == null || digests.length < 2) {
+			for (MessageDigest digest : digests) {
+				digest.update(buffer.duplicate());
+			}
+			return;
+		}
+		List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+		for (int i = 1; i < digests.length; i++) {
+			final MessageDigest digest = digests[i];
+			FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+				public void run() {
+					digest.update(buffer.duplicate());
+				}
+			}, null);
+			tasks.add(task);
+			executor.execute(task);
+		}
+		digests[0].update(buffer.duplicate());
+		try {
+			for (FutureTask<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while computing digests");
+		} catch (ExecutionException e) {
+			throw new IOException("Could not compute digest", e.getCause());
+		}
+	}
+
+	/* Opens the file and decides whether to map it */
+	private void open() throws IOException {
+		if (length >= 0) {
+			return;
+		}
+		length = channel().size();
+		mapped = memoryMap && length >= MIN_MAPPED_LENGTH;
+		if (mapped) {
+			chunks = new MappedByteBuffer[(int) ((length + chunkSize - 1) / chunkSize)];
+		}
+	}
+
+	/* Reads the header and tail on first use */
+	private void load() throws IOException {
+		if (header != null) {
+			return;
+		}
+		open();
+		ByteBuffer headerBuffer = read(0, (int) Math.min(length, headerBytes));
+		ByteBuffer tailBuffer;
+		int tailLength = (int) Math.min(length, tailBytes);
+		if (length == headerBuffer.remaining()) {
+			// the whole file is in the header already
+			tailBuffer = headerBuffer.duplicate();
+			tailBuffer.position(headerBuffer.limit() - tailLength);
+			tailBuffer = tailBuffer.slice();
+		} else {
+			tailBuffer = read(length - tailLength, tailLength);
+		}
+		header = headerBuffer;
+		tail = tailBuffer;
+	}
+
+	/* Returns a new view of a mapped chunk, mapping it on first use */
+	private synchronized ByteBuffer chunk(int index) throws IOException {
+		if (closed) {
+			throw new IOException("File context of " + file.getPath() + " is closed");
+		}
+		if (chunks[index] == null) {
+			long position = (long) index * chunkSize;
+			chunks[index] = channel().map(MapMode.READ_ONLY, position, Math.min(chunkSize, length - position));
+		}
+		return chunks[index].asReadOnlyBuffer();
+	}
+
+	/*
+	 * Returns the open channel. A thread interrupted while reading, such as a tool
+	 * that timed out, closes the channel for all threads, so it is opened again.
+	 */
+	private synchronized FileChannel channel() throws IOException {
+		if (closed) {
+			throw new IOException("File context of " + file.getPath() + " is closed");
+		}
+		if (channel == null || !channel.isOpen()) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		}
+		return channel;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		boolean retried = false;
+		while (buffer.hasRemaining()) {
+			int n;
+			try {
+				n = channel().read(buffer, position);
+			} catch (ClosedByInterruptException e) {
+				throw e;
+			} catch (AsynchronousCloseException e) {
+				// closed by another thread being interrupted
+				if (retried) {
+					throw e;
+				}
+				retried = true;
+				continue;
+			}
+			if (n < 0) {
+				throw new EOFException("Unexpected end of " + file.getPath());
+			}
+			position += n;
+		}
+	}
+
+}
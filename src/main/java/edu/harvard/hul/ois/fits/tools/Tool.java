@@ -17,9 +17,9 @@ import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
 import edu.harvard.hul.ois.fits.identity.ToolIdentity;
 
 /** All FITS tools implement this interface. */
-public interface Tool extends Runnable {
+public interface Tool {
 
-	public enum RunStatus {SHOULDNOTRUN,SHOULDRUN,FAILED,SUCCESSFUL};
+	public enum RunStatus {SHOULDNOTRUN,SHOULDRUN,FAILED,SUCCESSFUL,TIMED_OUT};
 
 	/**
 	 * Extracts the identification and metadata from the provided file
@@ -30,6 +30,70 @@ public interface Tool extends Runnable {
 	 */
 	public ToolOutput extractInfo(File file) throws FitsToolException;
 
+	/**
+	 * Extracts the identification and metadata from the provided file, making use of
+	 * the identification already reported by the tools this tool depends on
+	 * @param file the file to have its metadata extracted
+	 * @param identityHints read-only identities reported by the tools named in the depends-on
+	 * attribute of this tool in fits.xml; empty if there are none
+	 * @return tooloutput object containing the xml wrapping the tool raw output, fits compatible xml output
+	 * and the fits FileIdentity
+	 * @throws FitsToolException
+	 */
+	public default ToolOutput extractInfo(File file, List<ToolIdentity> identityHints) throws FitsToolException {
+		// ignores the hints unless the tool can skip work when the format is already known
+		return extractInfo(file);
+	}
+
+	/**
+	 * Extracts the identification and metadata from the provided file as
+	 * extractInfo(File, List) does, reading the start of the file from the
+	 * shared context instead of opening the file where the tool can
+	 * @param file the file to have its metadata extracted
+	 * @param identityHints read-only identities reported by the tools this tool depends on
+	 * @param context the bytes of the file read once for all tools; may be null
+	 * @return tooloutput object containing the xml wrapping the tool raw output, fits compatible xml output
+	 * and the fits FileIdentity
+	 * @throws FitsToolException
+	 */
+	public default ToolOutput extractInfo(File file, List<ToolIdentity> identityHints, FileContext context) throws FitsToolException {
+		// ignores the context unless the tool only needs the start or the end of the file
+		return extractInfo(file, identityHints);
+	}
+
+	/**
+	 * Runs the tool against the provided file, capturing the output, the run time
+	 * and any error thrown by the tool. No state about the file is kept in the tool
+	 * itself, so this may be called for several files at the same time.
+	 * @param file the file to have its metadata extracted
+	 * @return a new ToolResult for this invocation
+	 */
+	public ToolResult run(File file);
+
+	/**
+	 * Runs the tool against the provided file as run(File) does, passing the
+	 * identification reported by the tools this tool depends on to extractInfo().
+	 * @param file the file to have its metadata extracted
+	 * @param identityHints read-only identities reported by the tools this tool depends on
+	 * @return a new ToolResult for this invocation
+	 */
+	public default ToolResult run(File file, List<ToolIdentity> identityHints) {
+		return run(file, identityHints, null);
+	}
+
+	/**
+	 * Runs the tool against the provided file as run(File, List) does, passing
+	 * the shared context of the file to extractInfo(). Tools that only
+	 * implement run(File) ignore the hints and the context.
+	 * @param file the file to have its metadata extracted
+	 * @param identityHints read-only identities reported by the tools this tool depends on
+	 * @param context the bytes of the file read once for all tools; may be null
+	 * @return a new ToolResult for this invocation
+	 */
+	public default ToolResult run(File file, List<ToolIdentity> identityHints, FileContext context) {
+		return run(file);
+	}
+
 	/**
 	 * Checks if the value for the given field name is the
 	 * default value that the tool would report if it doesn't
@@ -100,21 +164,7 @@ public interface Tool extends Runnable {
 	 */
 	public void applyToolsUsed (List<ToolBelt.ToolsUsedItem> toolsUsedItems);
 
-	public void resetOutput();
-
 	public boolean isEnabled();
 
 	public void setEnabled(boolean value);
-
-	public void setInputFile(File file);
-
-	public ToolOutput getOutput();
-
-	public long getDuration();
-
-	public RunStatus getRunStatus();
-
-	public void setRunStatus(RunStatus runStatus);
-
-	public Throwable getCaughtThrowable();
 }
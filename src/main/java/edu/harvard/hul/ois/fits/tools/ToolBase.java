@@ -12,18 +12,18 @@ package edu.harvard.hul.ois.fits.tools;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
 
-import javax.xml.transform.Templates;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.transform.Source;
+
+import net.sf.saxon.s9api.SAXDestination;
 
 //import org.apache.xalan.processor.TransformerFactoryImpl;
 import org.jdom.Document;
 import org.jdom.input.SAXBuilder;
-import org.jdom.transform.JDOMResult;
+import org.jdom.input.SAXHandler;
 import org.jdom.transform.JDOMSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 
 import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
 import edu.harvard.hul.ois.fits.identity.ToolIdentity;
+import edu.harvard.hul.ois.fits.tools.utils.XsltTemplatesCache;
 
 /** An abstract class implementing the Tool interface, the base
  *  for all FITS tools.
@@ -40,32 +41,18 @@ public abstract class ToolBase implements Tool {
 	private static final Logger logger = LoggerFactory.getLogger( ToolBase.class );
 
 	protected ToolInfo info = null;
-	protected ToolOutput output = null;
 	protected SAXBuilder saxBuilder;
-	protected long duration;
-	protected RunStatus runStatus;
 	protected Hashtable<String,String> transformMap;
-	private TransformerFactory tFactory;
-    private File inputFile;
     private String name;
 
     private List<String> excludedExtensions;
     private List<String> includedExtensions;
 
-    private Throwable caughtThrowable;
-
 	public ToolBase() throws FitsToolException {
 		info = new ToolInfo();
-		tFactory = TransformerFactory.newInstance();
-		String factoryImpl = "net.sf.saxon.TransformerFactoryImpl";
-		try {
-			Class<?> clazz = Class.forName(factoryImpl, true, ToolBase.class.getClassLoader());
-			tFactory = (TransformerFactory)clazz.newInstance();
-		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
-			throw new FitsToolException("Could not access or instantiate class: " + factoryImpl, e);
-		}
-		
 		saxBuilder = new SAXBuilder();
+		// a shared parser is not thread-safe and tools may be run for several files at once
+		saxBuilder.setReuseParser(false);
 		excludedExtensions = new ArrayList<String>();
 		includedExtensions = new ArrayList<String>();
 	}
@@ -95,11 +82,6 @@ public abstract class ToolBase implements Tool {
 		return true;
 	}
 
-	/** Specifies the file to be processed. */
-	public void setInputFile(File file) {
-		inputFile = file;
-	}
-
 	public boolean isIdentityKnown(ToolIdentity identity) {
 		if(!canIdentify()) {
 			return false;
@@ -127,28 +109,29 @@ public abstract class ToolBase implements Tool {
 	}
 
 	public Document transform(String xslt, Document input) throws FitsToolException {
-		org.jdom.Document doc = null;
-		try {
-//			Configuration config = ((TransformerFactoryImpl)tFactory).getConfiguration();
-//			DocumentWrapper docw = new DocumentWrapper(input,null,config);
-			Templates templates = tFactory.newTemplates(new StreamSource(xslt));
-			Transformer transformer = templates.newTransformer();
-//			transformer.transform(new DOMSource((Node)input), out);
-//			transformer.transform(docw, out);
-
-		       JDOMSource in = new JDOMSource(input);
-		       JDOMResult out = new JDOMResult();
-//		       JDOMResult result = new JDOMResult();
-		       transformer.transform(in, out);
-		       doc = out.getDocument();
+		// the JDOM tree is read as SAX events, without serializing it
+		return transform(xslt, new JDOMSource(input));
+	}
 
-			
-//			doc = out.getDocument();
+	/**
+	 * Applies a stylesheet to the raw output of the tool. The stylesheet is
+	 * compiled once per process and the transformer is reused by the thread;
+	 * the result is built as a JDOM Document directly from the transformer events.
+	 *
+	 * @param xslt The path of the stylesheet.
+	 * @param input The raw output of the tool, such as a SAXSource emitting it as events.
+	 * @return The FITS formatted XML.
+	 * @throws FitsToolException If the stylesheet cannot be compiled or applied.
+	 */
+	public Document transform(String xslt, Source input) throws FitsToolException {
+		try {
+			SAXHandler handler = new SAXHandler();
+			XsltTemplatesCache.getTransformer(xslt).applyTemplates(input, new SAXDestination(handler));
+			return handler.getDocument();
 		}
 		catch(Exception e) {
 			throw new FitsToolException(info.getName()+": Error converting output using "+xslt,e);
 		}
-		return doc;
 	}
 
 	public void addExcludedExtension(String ext) {
@@ -238,53 +221,31 @@ public abstract class ToolBase implements Tool {
 	    }
 	    return false;
 	}
-	public ToolOutput getOutput() {
-		return output;
-	}
-
-	public void resetOutput() {
-		output = null;
-	}
-
-	public long getDuration() {
-		return duration;
-	}
-
-	public void setDuration(long duration) {
-		this.duration = duration;
-	}
-
-	public RunStatus getRunStatus() {
-		return runStatus;
-	}
-
-	public void setRunStatus(RunStatus runStatus) {
-		this.runStatus = runStatus;
-	}
-
-	/*
-	 * Save an exception for reporting.
+	/**
+	 * Runs extractInfo() against the file. Any error (Throwable) is captured
+	 * in the returned ToolResult so that it can be reported later.
+	 *
+	 * @see edu.harvard.hul.ois.fits.tools.Tool#run(java.io.File)
 	 */
-	private void setCaughtThrowable (Throwable e) {
-	    caughtThrowable = e;
-	}
-	
-	public Throwable getCaughtThrowable() {
-		return caughtThrowable;
+	public ToolResult run(File file) {
+		return run(file, Collections.<ToolIdentity>emptyList(), null);
 	}
 
 	/**
-	 * Called to extract metadata when this tool's thread is kicked off.
-	 * We capture any error (Throwable) so that it can be reported later.
-	 * 
-	 * @see java.lang.Runnable#run()
+	 * @see edu.harvard.hul.ois.fits.tools.Tool#run(java.io.File, java.util.List, edu.harvard.hul.ois.fits.tools.FileContext)
 	 */
-	public void run() {
+	public ToolResult run(File file, List<ToolIdentity> identityHints, FileContext context) {
+		ToolResult result = new ToolResult(this, RunStatus.SHOULDRUN);
+		long startTime = System.currentTimeMillis();
 		try {
-			output = extractInfo(inputFile);
+			result.setOutput(extractInfo(file, identityHints, context));
+			result.setRunStatus(RunStatus.SUCCESSFUL);
 		} catch (Throwable e) {
-			setCaughtThrowable(e);
+			result.setCaughtThrowable(e);
+			result.setRunStatus(RunStatus.FAILED);
 		}
+		result.setDuration(System.currentTimeMillis()-startTime);
+		return result;
 	}
 
 	public SAXBuilder getSaxBuilder () {
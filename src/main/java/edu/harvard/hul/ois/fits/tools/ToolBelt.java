@@ -12,11 +12,16 @@ package edu.harvard.hul.ois.fits.tools;
 
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.lang.StringUtils;
@@ -25,7 +30,9 @@ import org.apache.log4j.Logger;
 import edu.harvard.hul.ois.fits.Fits;
 import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
 import edu.harvard.hul.ois.fits.identity.ToolIdentity;
+import edu.harvard.hul.ois.fits.tools.ffident.FormatIdentification;
 import edu.harvard.hul.ois.fits.tools.utils.ParentLastClassLoader;
+import edu.harvard.hul.ois.fits.tools.utils.XsltTemplatesCache;
 
 public class ToolBelt {
 
@@ -48,6 +55,21 @@ public class ToolBelt {
 
 	private List<Tool> tools;
 
+	// Tools that could not be instantiated, along with the reason
+	private Map<Tool, Throwable> failedTools = new HashMap<Tool, Throwable>();
+
+	// Tools with a max-concurrency or pool-size in the config file
+	private Map<Tool, ToolPool> toolPools = new HashMap<Tool, ToolPool>();
+
+	// Tools with a timeout-ms in the config file
+	private Map<Tool, Long> toolTimeouts = new HashMap<Tool, Long>();
+
+	// Tools with a depends-on in the config file, along with the tools they depend on
+	private Map<Tool, List<Tool>> toolDependencies = new HashMap<Tool, List<Tool>>();
+
+	// Chooses tools by the format of the file header, null if routing is not enabled
+	private ToolRouter toolRouter;
+
 	/**
 	 * Constructor
 	 *
@@ -68,8 +90,13 @@ public class ToolBelt {
 		// Collect the tools-used elements
 		List<ToolsUsedItem> toolsUsedList = processToolsUsed(config);
 
+		toolRouter = processRouting(config);
+
 		tools = new ArrayList<Tool>();
 
+		// names of the tools each tool depends on, resolved once all tools are loaded
+		Map<Tool, List<String>> dependencyNames = new HashMap<Tool, List<String>>();
+
 		// get number of tools
 		int size = config.getList("tools.tool[@class]").size();
 		ClassLoader savedClassLoader = ToolBelt.class.getClassLoader();
@@ -122,16 +149,34 @@ public class ToolBelt {
 				Tool t = createToolClassInstance(toolClass, fits);
 
 				if(t != null) {
-					t.setName(bareClassName(tClass));
-					for(String ext : excludes) {
-						t.addExcludedExtension(ext);
+					configureTool(t, tClass, excludes, includes, toolsUsedList);
+					tools.add(t);
+
+					@SuppressWarnings("unchecked")
+					List<String> dependsOn = (List<String>)(List<?>)config.getList("tools.tool("+i+")[@depends-on]");
+					if (!dependsOn.isEmpty()) {
+						dependencyNames.put(t, dependsOn);
 					}
-					for(String ext : includes) {
-						t.addIncludedExtension(ext);
+
+					int timeout = getPositiveInt(config, "tools.tool("+i+")[@timeout-ms]", tClass);
+					if (timeout > 0) {
+						toolTimeouts.put(t, Long.valueOf(timeout));
+					}
+
+					int poolSize = getPositiveInt(config, "tools.tool("+i+")[@pool-size]", tClass);
+					int maxConcurrency = getPositiveInt(config, "tools.tool("+i+")[@max-concurrency]", tClass);
+					if (poolSize > 0 || maxConcurrency > 0) {
+						// additional instances are constructed independently so they share no state with the first
+						List<Tool> instances = new ArrayList<Tool>();
+						instances.add(t);
+						for (int j = 1; j < poolSize; j++) {
+							Tool instance = createToolClassInstance(toolClass, fits);
+							configureTool(instance, tClass, excludes, includes, toolsUsedList);
+							instances.add(instance);
+						}
+						toolPools.put(t, new ToolPool(instances, maxConcurrency));
+						logger.debug("Tool " + tClass + " -- pool size: " + instances.size() + " -- max concurrency: " + maxConcurrency);
 					}
-					// Modify included and excluded extensions by tools-used
-					t.applyToolsUsed (toolsUsedList);
-					tools.add(t);
 				}
 			} catch(MalformedURLException | ReflectiveOperationException ex) {
 				// Catch and report any exception during tool instantiation.
@@ -153,8 +198,99 @@ public class ToolBelt {
 				}
 			}
 		}
+
+		resolveDependencies(dependencyNames);
+
+		// compile the stylesheets listed in the XSLT maps of the tools before any file is examined
+		XsltTemplatesCache.preload();
 	}
 	
+	/*
+	 * Looks up the tools named in depends-on attributes. Unknown names are ignored, as
+	 * is any dependency that would make a tool wait on itself, so the tools always form
+	 * a directed acyclic graph.
+	 */
+	private void resolveDependencies(Map<Tool, List<String>> dependencyNames) {
+		for (Tool t : tools) {
+			List<String> names = dependencyNames.get(t);
+			if (names == null) {
+				continue;
+			}
+			List<Tool> dependencies = new ArrayList<Tool>();
+			for (String name : names) {
+				Tool dependency = getTool(name.trim());
+				if (dependency == null) {
+					logger.warn("Ignoring unknown tool [" + name + "] in depends-on of tool: " + t.getName());
+				} else if (dependsOn(dependency, t)) {
+					logger.warn("Ignoring circular dependency of tool: " + t.getName() + " on tool: " + name);
+				} else {
+					dependencies.add(dependency);
+				}
+			}
+			if (!dependencies.isEmpty()) {
+				toolDependencies.put(t, dependencies);
+			}
+		}
+	}
+
+	/* True if tool waits on other, directly or through other tools */
+	private boolean dependsOn(Tool tool, Tool other) {
+		if (tool == other) {
+			return true;
+		}
+		for (Tool dependency : getDependencies(tool)) {
+			if (dependsOn(dependency, other)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* Returns the tool with the given name (the bare class name), or null */
+	private Tool getTool(String name) {
+		for (Tool t : tools) {
+			if (name.equals(t.getName())) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Applies the settings from the tool element of the config file to a new tool instance.
+	 */
+	private void configureTool(Tool t, String tClass, List<String> excludes, List<String> includes, List<ToolsUsedItem> toolsUsedList) {
+		t.setName(bareClassName(tClass));
+		for(String ext : excludes) {
+			t.addExcludedExtension(ext);
+		}
+		for(String ext : includes) {
+			t.addIncludedExtension(ext);
+		}
+		// Modify included and excluded extensions by tools-used
+		t.applyToolsUsed (toolsUsedList);
+	}
+
+	/*
+	 * Reads an optional numeric attribute of a tool element. Returns 0 if the attribute
+	 * is missing or not a positive number.
+	 */
+	private int getPositiveInt(XMLConfiguration config, String key, String tClass) {
+		String value = config.getString(key);
+		if (StringUtils.isEmpty(value)) {
+			return 0;
+		}
+		try {
+			int n = Integer.parseInt(value.trim());
+			if (n > 0) {
+				return n;
+			}
+		} catch (NumberFormatException e) {
+		}
+		logger.warn("Ignoring invalid value [" + value + "] for " + key + " of tool class: " + tClass);
+		return 0;
+	}
+
 	/*
 	 * Instantiate a Tool class using Reflection by passing Fits into the constructor.
 	 * Note: All Tool class implementations can have a 1-argument constructor with Fits as the argument.
@@ -181,6 +317,89 @@ public class ToolBelt {
 		return tools;
 	}
 
+	/**
+	 * Asks to run a tool, respecting its max-concurrency and pool-size, without waiting.
+	 * Every call must be followed by a call to release() with the instance the future completes with.
+	 *
+	 * @param tool A tool from this ToolBelt.
+	 * @return A future completed with the instance of the tool to run once it may run.
+	 */
+	public CompletableFuture<Tool> acquire(Tool tool) {
+		ToolPool pool = toolPools.get(tool);
+		if (pool == null) {
+			return CompletableFuture.completedFuture(tool);
+		}
+		return pool.acquire();
+	}
+
+	/**
+	 * Releases an instance obtained from acquire().
+	 *
+	 * @param tool The tool passed to acquire().
+	 * @param instance The instance returned by acquire().
+	 */
+	public void release(Tool tool, Tool instance) {
+		ToolPool pool = toolPools.get(tool);
+		if (pool != null) {
+			pool.release(instance);
+		}
+	}
+
+	/**
+	 * Returns the maximum time a tool may run against one file.
+	 *
+	 * @param tool A tool from this ToolBelt.
+	 * @return The timeout-ms of the tool; 0 if the tool has no timeout.
+	 */
+	public long getTimeout(Tool tool) {
+		Long timeout = toolTimeouts.get(tool);
+		return timeout == null ? 0 : timeout.longValue();
+	}
+
+	/**
+	 * Returns the pool for a tool.
+	 *
+	 * @param tool A tool from this ToolBelt.
+	 * @return The ToolPool if the tool has a max-concurrency or pool-size; <code>null</code> otherwise.
+	 */
+	public ToolPool getToolPool(Tool tool) {
+		return toolPools.get(tool);
+	}
+
+	/**
+	 * Returns the tools whose identification results a tool uses, as set by the
+	 * depends-on attribute of the tool element in the config file.
+	 *
+	 * @param tool A tool from this ToolBelt.
+	 * @return The tools it depends on; empty if the tool has no dependencies.
+	 */
+	public List<Tool> getDependencies(Tool tool) {
+		List<Tool> dependencies = toolDependencies.get(tool);
+		if (dependencies == null) {
+			return Collections.emptyList();
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Returns the router that chooses tools by the format of the file header.
+	 *
+	 * @return The ToolRouter; <code>null</code> if routing is not enabled in the config file.
+	 */
+	public ToolRouter getToolRouter() {
+		return toolRouter;
+	}
+
+	/**
+	 * Returns the error thrown while instantiating a tool.
+	 *
+	 * @param tool A tool from this ToolBelt.
+	 * @return The Throwable if the tool could not be instantiated; <code>null</code> otherwise.
+	 */
+	public Throwable getInstantiationError(Tool tool) {
+		return failedTools.get(tool);
+	}
+
 	public void printToolInfo(boolean includeSysInfo) {
 		if(includeSysInfo) {
 			//system info
@@ -211,6 +430,30 @@ public class ToolBelt {
 	    return results;
 	}
 
+	/* Process the routing element and return the router, or null
+	 * if routing is not enabled */
+	private ToolRouter processRouting (XMLConfiguration config) {
+	    if (!config.getBoolean("routing[@enabled]", false)) {
+	        return null;
+	    }
+	    int size = config.getList("routing.route[@match]").size();
+	    List<ToolRouter.Route> routes = new ArrayList<ToolRouter.Route> (size);
+	    for (int i = 0; i < size; i++) {
+            @SuppressWarnings("unchecked")
+            List<String> matches = (List<String>)(List<?>)config.getList("routing.route("+i+")[@match]");
+            @SuppressWarnings("unchecked")
+            List<String> tools = (List<String>)(List<?>)config.getList("routing.route("+i+")[@tools]");
+            routes.add (new ToolRouter.Route (matches, tools));
+	    }
+	    String formatsFile = Fits.FITS_TOOLS_DIR + "ffident/formats.txt";
+	    try {
+	        return new ToolRouter(new FormatIdentification(formatsFile), routes);
+	    } catch (FileNotFoundException e) {
+	        logger.error("Routing disabled, could not find " + formatsFile);
+	        return null;
+	    }
+	}
+
 	/* Extract the last component of the class name to use as the
 	 * tool's name field */
 	private String bareClassName(String cname) {
@@ -316,16 +559,22 @@ public class ToolBelt {
 		final Throwable t = throwable;
 
 		Tool failedTool = new Tool() {
-			
-			
-			@Override
-			public void run() {}
 
 			@Override
 			public ToolOutput extractInfo(File file) throws FitsToolException {
 				return null;
 			}
 
+			/**
+			 * Return a result that shows the tool failed.
+			 */
+			@Override
+			public ToolResult run(File file) {
+				ToolResult result = new ToolResult(this, RunStatus.FAILED);
+				result.setCaughtThrowable(t);
+				return result;
+			}
+
 			@Override
 			public boolean isIdentityKnown(ToolIdentity identity) {
 				return false;
@@ -378,9 +627,6 @@ public class ToolBelt {
 			@Override
 			public void applyToolsUsed(List<ToolsUsedItem> toolsUsedItems) {}
 
-			@Override
-			public void resetOutput() {}
-
 			/**
 			 * Indicates that the tool is not enabled so should be no attempt to run tool.
 			 */
@@ -391,37 +637,9 @@ public class ToolBelt {
 
 			@Override
 			public void setEnabled(boolean value) {}
-
-			@Override
-			public void setInputFile(File file) {}
-
-			@Override
-			public ToolOutput getOutput() {
-				return null;
-			}
-
-			@Override
-			public long getDuration() {
-				return 0;
-			}
-
-			/**
-			 * Return status that shows the tool failed.
-			 */
-			@Override
-			public RunStatus getRunStatus() {
-				return RunStatus.FAILED;
-			}
-
-			@Override
-			public void setRunStatus(RunStatus runStatus) {}
-
-			@Override
-			public Throwable getCaughtThrowable() {
-				return t;
-			}
 		};
 
+		failedTools.put(failedTool, throwable);
 		return failedTool;
 	}
 }
@@ -13,6 +13,7 @@ package edu.harvard.hul.ois.fits.tools;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -52,6 +53,8 @@ public class ToolOutput {
 	private Tool tool;
 	//Identification data about the input file
 	private List<ToolIdentity> identity = new ArrayList<ToolIdentity>();
+	//FITS formatted XML the tool adds once it is computed, null if there is none
+	private CompletableFuture<Document> deferredFitsXml;
 
 	/** Constructor
 	 *
@@ -99,6 +102,20 @@ public class ToolOutput {
 		this.fitsXml = fitsXml;
 	}
 
+	/**
+	 * Returns the FITS formatted XML that the tool is still computing, such as
+	 * checksums computed after the identification, or null if there is none.
+	 * The elements of its sections are added to the consolidated output once
+	 * the future is completed.
+	 */
+	public CompletableFuture<Document> getDeferredFitsXml() {
+		return deferredFitsXml;
+	}
+
+	public void setDeferredFitsXml(CompletableFuture<Document> deferredFitsXml) {
+		this.deferredFitsXml = deferredFitsXml;
+	}
+
 	/** Returns the raw XML from the tool */
 	public Document getToolOutput() {
 		return toolOutput;
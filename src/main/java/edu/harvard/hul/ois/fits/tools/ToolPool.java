@@ -0,0 +1,130 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits.tools;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Limits how a single configured tool is run when several files are examined
+ * at the same time, as set by the max-concurrency and pool-size attributes of
+ * the tool element in fits.xml.
+ * <p>
+ * With a pool-size, each of the independently constructed instances runs
+ * one file at a time and callers wait for a free instance. With only a
+ * max-concurrency, the one instance is shared by at most that many callers.
+ * Callers never block: acquire() returns a future completed, in the order
+ * the callers asked, once the tool may run.
+ */
+public class ToolPool {
+
+	// The instance returned by ToolBelt.getTools()
+	private final Tool tool;
+	// Idle instances when pooled, null when the one instance is shared
+	private final Queue<Tool> idleInstances;
+	private final int poolSize;
+	private final int maxConcurrency;
+	// The number of runs holding a permit
+	private int running;
+	// Callers not yet given an instance
+	private final Queue<CompletableFuture<Tool>> waiters = new ArrayDeque<CompletableFuture<Tool>>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param instances      The instances of the tool, the first being the one returned by ToolBelt.getTools().
+	 *                       More than one instance means each instance is used by only one caller at a time.
+	 * @param maxConcurrency The maximum number of concurrent runs of the tool, 0 for no limit.
+	 */
+	public ToolPool(List<Tool> instances, int maxConcurrency) {
+		this.tool = instances.get(0);
+		this.poolSize = instances.size();
+		this.maxConcurrency = maxConcurrency;
+		if (instances.size() > 1) {
+			idleInstances = new ArrayDeque<Tool>(instances);
+		} else {
+			idleInstances = null;
+		}
+	}
+
+	public Tool getTool() {
+		return tool;
+	}
+
+	/** Returns the number of instances of the tool */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/** Returns the maximum number of concurrent runs of the tool, 0 for no limit */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * Asks for a permit and a free instance of the tool without waiting for them.
+	 * The future may be completed by the thread that calls release(), so work
+	 * chained on it should not block. Every call must be followed by a call to
+	 * release() with the instance the future completes with.
+	 *
+	 * @return A future completed with the instance to run.
+	 */
+	public CompletableFuture<Tool> acquire() {
+		CompletableFuture<Tool> granted = new CompletableFuture<Tool>();
+		Tool instance = null;
+		synchronized (this) {
+			if (waiters.isEmpty() && canRun()) {
+				instance = take();
+			} else {
+				waiters.add(granted);
+			}
+		}
+		if (instance != null) {
+			granted.complete(instance);
+		}
+		return granted;
+	}
+
+	/**
+	 * Returns an instance obtained from acquire() to the pool.
+	 */
+	public void release(Tool instance) {
+		CompletableFuture<Tool> waiter = null;
+		Tool next = null;
+		synchronized (this) {
+			running--;
+			if (idleInstances != null) {
+				idleInstances.add(instance);
+			}
+			if (!waiters.isEmpty() && canRun()) {
+				waiter = waiters.poll();
+				next = take();
+			}
+		}
+		// a release frees at most one instance and one permit
+		if (waiter != null) {
+			waiter.complete(next);
+		}
+	}
+
+	private boolean canRun() {
+		return (maxConcurrency <= 0 || running < maxConcurrency)
+				&& (idleInstances == null || !idleInstances.isEmpty());
+	}
+
+	private Tool take() {
+		running++;
+		return idleInstances == null ? tool : idleInstances.poll();
+	}
+
+}
@@ -0,0 +1,101 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits.tools;
+
+import edu.harvard.hul.ois.fits.tools.Tool.RunStatus;
+
+/**
+ * The result of running one Tool against one input file. A new instance is
+ * created for every invocation so that a single Tool instance can process
+ * several files at the same time without sharing any per-file state.
+ */
+public class ToolResult {
+
+	//Reference to the tool that was run
+	private final Tool tool;
+	//The output of the tool, null if the tool did not run or failed
+	private ToolOutput output;
+	//Run time of the tool in milliseconds
+	private long duration;
+	//Time in milliseconds the tool waited for a free thread before running
+	private long queueTime;
+	private RunStatus runStatus;
+	private Throwable caughtThrowable;
+
+	/** Constructor
+	 *
+	 * @param tool       The Tool this result is for
+	 * @param runStatus  The initial status of the run
+	 */
+	public ToolResult(Tool tool, RunStatus runStatus) {
+		this.tool = tool;
+		this.runStatus = runStatus;
+	}
+
+	/** Returns the Tool this result is for */
+	public Tool getTool() {
+		return tool;
+	}
+
+	/** Returns the output of the tool, or null if the tool produced none */
+	public ToolOutput getOutput() {
+		return output;
+	}
+
+	public void setOutput(ToolOutput output) {
+		this.output = output;
+	}
+
+	/** Returns the run time of the tool in milliseconds */
+	public long getDuration() {
+		return duration;
+	}
+
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	/** Returns the time in milliseconds the tool waited to be run */
+	public long getQueueTime() {
+		return queueTime;
+	}
+
+	public void setQueueTime(long queueTime) {
+		this.queueTime = queueTime;
+	}
+
+	public RunStatus getRunStatus() {
+		return runStatus;
+	}
+
+	public void setRunStatus(RunStatus runStatus) {
+		this.runStatus = runStatus;
+	}
+
+	/** Returns the error thrown while running the tool, if any */
+	public Throwable getCaughtThrowable() {
+		return caughtThrowable;
+	}
+
+	public void setCaughtThrowable(Throwable caughtThrowable) {
+		this.caughtThrowable = caughtThrowable;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder("ToolResult[");
+		sb.append(tool.getName());
+		sb.append(", ");
+		sb.append(runStatus);
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
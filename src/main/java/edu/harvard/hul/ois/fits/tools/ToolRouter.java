@@ -0,0 +1,120 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+package edu.harvard.hul.ois.fits.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.harvard.hul.ois.fits.tools.ffident.FormatDescription;
+import edu.harvard.hul.ois.fits.tools.ffident.FormatIdentification;
+
+/**
+ * Chooses the tools to run against a file from the format found in the
+ * first bytes of the file, as configured by the routing element in fits.xml.
+ * <p>
+ * The header is matched against the ffident magic numbers. Each route lists
+ * format groups, short format names or MIME types (e.g. "video", "JPEG" or
+ * "application/pdf") and the names of the tools to run for them. The first
+ * matching route wins. When the format is not recognized or no route matches,
+ * the include-exts and exclude-exts of the tools apply as usual.
+ */
+public class ToolRouter {
+
+	private static final Logger logger = Logger.getLogger(ToolRouter.class);
+
+	/** The representation of one route element in the config file */
+	public static class Route {
+		private final List<String> matches;
+		private final Set<String> toolNames;
+
+		public Route(List<String> matches, List<String> toolNames) {
+			this.matches = new ArrayList<String>();
+			for (String match : matches) {
+				this.matches.add(match.trim());
+			}
+			this.toolNames = new HashSet<String>();
+			for (String toolName : toolNames) {
+				this.toolNames.add(toolName.trim());
+			}
+		}
+
+		/* True if the group, short name or one of the MIME types of the format is listed */
+		boolean matches(FormatDescription desc) {
+			for (String match : matches) {
+				if (match.equalsIgnoreCase(desc.getGroup()) || match.equalsIgnoreCase(desc.getShortName())) {
+					return true;
+				}
+				for (String mime : desc.getMimeTypes()) {
+					if (match.equalsIgnoreCase(mime)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private final FormatIdentification identifier;
+	private final List<Route> routes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param identifier The ffident identifier used to recognize the file header.
+	 * @param routes The routes in the order they are tried.
+	 */
+	public ToolRouter(FormatIdentification identifier, List<Route> routes) {
+		this.identifier = identifier;
+		this.routes = routes;
+	}
+
+	/**
+	 * Returns the names of the tools to run against a file.
+	 *
+	 * @param file The file to examine.
+	 * @return The tool names of the matching route; <code>null</code> if no route matches.
+	 */
+	public Set<String> route(File file) {
+		return route(file, identifier.identify(file));
+	}
+
+	/**
+	 * Returns the names of the tools to run against a file, using the
+	 * header already read into the context of the file.
+	 *
+	 * @param context The shared context of the file to examine.
+	 * @return The tool names of the matching route; <code>null</code> if no route matches.
+	 */
+	public Set<String> route(FileContext context) {
+		return route(context.getFile(), identifier.identify(context));
+	}
+
+	private Set<String> route(File file, FormatDescription desc) {
+		if (desc == null) {
+			logger.debug("No format recognized for routing " + file.getName());
+			return null;
+		}
+		for (Route route : routes) {
+			if (route.matches(desc)) {
+				logger.debug("Routing " + file.getName() + " as " + desc.getShortName() + " to " + route.toolNames);
+				return route.toolNames;
+			}
+		}
+		logger.debug("No route for " + file.getName() + " recognized as " + desc.getShortName());
+		return null;
+	}
+
+}
@@ -83,7 +83,6 @@ public class Droid extends ToolBase {
 	@Override
 	public ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug("Droid.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
 		IdentificationResultCollection results;
 		ContainerAggregator aggregator = null;
 		try {
@@ -121,8 +120,6 @@ public class Droid extends ToolBase {
 		DroidToolOutputter outputter = new DroidToolOutputter(this, results, fits, aggregator);
 		ToolOutput output = outputter.toToolOutput();
 
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
         logger.debug("Droid.extractInfo finished on " + file.getName());
 		return output;
 	}
@@ -12,16 +12,15 @@
 package edu.harvard.hul.ois.fits.tools.exiftool;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.log4j.Logger;
 import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.IllegalDataException;
+import org.jdom.IllegalNameException;
 
 import edu.harvard.hul.ois.fits.Fits;
 import edu.harvard.hul.ois.fits.exceptions.FitsException;
@@ -89,7 +88,6 @@ public class Exiftool extends ToolBase {
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug("Exiftool.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
 		List<String> execCommand = new ArrayList<String>();
 		//determine if the file can be used on the current platform
 		if (osIsWindows) {
@@ -115,18 +113,9 @@ public class Exiftool extends ToolBase {
 		String execOut = CommandLine.exec(execCommand,null);
 		logger.debug("Finished running Exiftool");
 
-		String[] outParts = execOut.split("\n");
-		String format = null;
-		for(String s : outParts) {
-			s = s.toLowerCase();
-			String[] lineParts = s.split("\t");
-			if(lineParts[0].equalsIgnoreCase("filetype")) {
-				format = lineParts[1].trim();
-				break;
-			}
-		}
-
-		Document rawOut = createXml(execOut);
+		RawOutput parsed = createXml(execOut);
+		Document rawOut = parsed.doc;
+		String format = parsed.format;
 
 		/*
 		Document exifDoc = null;
@@ -155,11 +144,9 @@ public class Exiftool extends ToolBase {
 			//use generic transform
 			fitsXml = transform(exiftoolFitsConfig+genericTransform,rawOut);
 		}
-		output = new ToolOutput(this,fitsXml,rawOut, fits);
+		ToolOutput output = new ToolOutput(this,fitsXml,rawOut, fits);
 		//}
 
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
         logger.debug("Exiftool.extractInfo finished on " + file.getName());
 		return output;
 	}
@@ -174,45 +161,78 @@ public class Exiftool extends ToolBase {
 		}
 	}
 
-	private Document createXml(String execOut) throws FitsToolException {
-    	StringWriter out = new StringWriter();
-
-        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        out.write("\n");
-        out.write("<exiftool>");
-        out.write("\n");
-
-        out.write("<rawOutput>\n"+StringEscapeUtils.escapeXml(execOut));
-        out.write("</rawOutput>");
-        out.write("\n");
-
-    	String[] lines = execOut.split("\n");
-    	for(String line : lines) {
-    		String[] parts = line.split("\t");
-    		String field = parts[0].trim();
-    		if(parts.length > 1 && field.length() > 0) {
-    			String value = parts[1].trim();
-    			out.write("<"+field+">"+StringEscapeUtils.escapeXml(value)+"</"+field+">");
-    			out.write("\n");
-    		}
-    	}
-        out.write("</exiftool>");
-        out.write("\n");
-
-        out.flush();
-        try {
-			out.close();
-		} catch (IOException e) {
-			throw new FitsToolException("Error closing Exiftool XML output stream",e);
-		}
-        Document doc = null;
+	/** The raw XML of the Exiftool output and the file type it reports */
+	static class RawOutput {
+		final Document doc;
+		// the first FileType reported, null if there is none
+		final String format;
+
+		RawOutput(Document doc, String format) {
+			this.doc = doc;
+			this.format = format;
+		}
+	}
+
+	/*
+	 * Builds the raw XML in one pass over the tab separated lines of the output,
+	 * creating an element for each tag and noting the FileType on the way.
+	 */
+	static RawOutput createXml(String execOut) throws FitsToolException {
+		String format = null;
+		Element root = new Element("exiftool");
 		try {
-			doc = saxBuilder.build(new StringReader(out.toString()));
-		} catch (Exception e) {
+			root.addContent("\n");
+			// the parser used to read this as XML text normalized the line ends
+			String rawText = "\n" + execOut.replace("\r\n", "\n").replace('\r', '\n');
+			root.addContent(new Element("rawOutput").setText(rawText));
+			root.addContent("\n");
+
+			int start = 0;
+			while (start < execOut.length()) {
+				int end = execOut.indexOf('\n', start);
+				if (end < 0) {
+					end = execOut.length();
+				}
+				int tab = execOut.indexOf('\t', start);
+				if (tab >= 0 && tab < end) {
+					String field = execOut.substring(start, tab).trim();
+					// only the text up to a second tab is the value
+					int valueEnd = execOut.indexOf('\t', tab + 1);
+					if (valueEnd < 0 || valueEnd > end) {
+						valueEnd = end;
+					}
+					String value = execOut.substring(tab + 1, valueEnd).trim();
+					// a tag followed only by tabs is skipped, like a line without one
+					if (field.length() > 0 && hasValue(execOut, tab + 1, end)) {
+						Element element = new Element(field);
+						if (value.length() > 0) {
+							element.setText(value);
+						}
+						root.addContent(element);
+						root.addContent("\n");
+						if (format == null && field.equalsIgnoreCase("FileType")) {
+							format = value;
+						}
+					}
+				}
+				start = end + 1;
+			}
+		} catch (IllegalDataException | IllegalNameException e) {
 			throw new FitsToolException("Error parsing Exiftool XML Output",e);
 		}
-        return doc;
-    }
+		return new RawOutput(new Document(root), format);
+	}
+
+	/* True if anything but tabs follows the tag on its line */
+	private static boolean hasValue(String execOut, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (execOut.charAt(i) != '\t') {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/*
 	public boolean isIdentityKnown(FileIdentity identity) {
 		//identity and mimetype must not be null or empty strings for an identity to be "known"
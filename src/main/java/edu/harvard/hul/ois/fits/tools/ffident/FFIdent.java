@@ -24,6 +24,8 @@ import org.apache.log4j.Logger;
 
 import edu.harvard.hul.ois.fits.Fits;
 import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
+import edu.harvard.hul.ois.fits.identity.ToolIdentity;
+import edu.harvard.hul.ois.fits.tools.FileContext;
 import edu.harvard.hul.ois.fits.tools.ToolBase;
 import edu.harvard.hul.ois.fits.tools.ToolInfo;
 import edu.harvard.hul.ois.fits.tools.ToolOutput;
@@ -59,9 +61,22 @@ public class FFIdent extends ToolBase {
 	}
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
+		return extractInfo(file, identifier.identify(file));
+	}
+
+	/**
+	 * Identifies the file from the header in the context when there is one.
+	 */
+	@Override
+	public ToolOutput extractInfo(File file, List<ToolIdentity> identityHints, FileContext context) throws FitsToolException {
+		if (context == null) {
+			return extractInfo(file);
+		}
+		return extractInfo(file, identifier.identify(context));
+	}
+
+	private ToolOutput extractInfo(File file, FormatDescription desc) throws FitsToolException {
 	    logger.debug ("FFIdent.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
-		FormatDescription desc = identifier.identify(file);
 		//FileIdentity identity = null;
 		Document rawOut = null;
 		Document fitsXml = null;
@@ -72,9 +87,7 @@ public class FFIdent extends ToolBase {
 			rawOut = createXml(desc);
 			fitsXml = transform(xslt,rawOut);
 		//}
-		output = new ToolOutput(this,fitsXml,rawOut, fits);
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
+		ToolOutput output = new ToolOutput(this,fitsXml,rawOut, fits);
         logger.debug ("FFIdent.extractInfo finished on " + file.getName());
 		return output;
 	}
@@ -22,6 +22,8 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.harvard.hul.ois.fits.tools.FileContext;
+
 /**
  * helper class that tries to identify the file format for a given file
  * or byte array representing the first bytes of a file. <h3>Usage</h3>
@@ -82,6 +84,22 @@ public class FormatIdentification {
 		return identify(data);
 	}
 
+	/**
+	 * Identifies the file from the header already read into the context,
+	 * reading the file itself only if the header is too short for the
+	 * longest magic number.
+	 */
+	public FormatDescription identify(FileContext context) {
+		try {
+			if (context.isComplete() || context.getHeader().remaining() >= minBufferSize) {
+				return identify(context.getHeaderBytes(minBufferSize));
+			}
+		} catch (IOException ioe) {
+			return null;
+		}
+		return identify(context.getFile());
+	}
+
 	private static void init(String configFile) throws FileNotFoundException {
 		descriptions = new ArrayList<FormatDescription>();
 		minBufferSize = 1;
@@ -86,7 +86,6 @@ public class FileUtility extends ToolBase {
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
 	    logger.debug("FileUtility.extractInfo starting");
-		long startTime = System.currentTimeMillis();
 
 		List<String> execCommand = new ArrayList<String>();
 		if (osIsWindows) {
@@ -171,10 +170,8 @@ public class FileUtility extends ToolBase {
 		Document rawOut = createXml(mime,format,charset,linebreaks,execOut+"\n"+execMimeOut);
 		Document fitsXml = transform(xslt,rawOut);
 
-		output = new ToolOutput(this,fitsXml,rawOut, fits);
+		ToolOutput output = new ToolOutput(this,fitsXml,rawOut, fits);
 
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
         logger.debug("FileUtility.extractInfo finished");
 		return output;
 	}
@@ -16,6 +16,9 @@ import java.io.File;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.jdom.Document;
 import org.apache.log4j.Logger;
@@ -23,6 +26,7 @@ import org.apache.log4j.Logger;
 import edu.harvard.hul.ois.fits.Fits;
 import edu.harvard.hul.ois.fits.exceptions.FitsException;
 import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
+import edu.harvard.hul.ois.fits.identity.ToolIdentity;
 import edu.harvard.hul.ois.fits.tools.ToolBase;
 import edu.harvard.hul.ois.fits.tools.ToolInfo;
 import edu.harvard.hul.ois.fits.tools.ToolOutput;
@@ -48,6 +52,22 @@ public class Jhove extends ToolBase {
     private final static String jhoveFitsConfig = Fits.FITS_XML_DIR + "jhove" + File.separator;
     private static final Logger logger = Logger.getLogger(Jhove.class);
 
+    // Jhove modules (from jhove.conf) that can be chosen from an identity hint
+    private static final Map<String,String> MODULES_BY_MIMETYPE = new HashMap<String,String>();
+    static {
+        MODULES_BY_MIMETYPE.put("audio/x-aiff", "AIFF-hul");
+        MODULES_BY_MIMETYPE.put("audio/x-wav", "WAVE-hul");
+        MODULES_BY_MIMETYPE.put("application/pdf", "PDF-hul");
+        MODULES_BY_MIMETYPE.put("image/jp2", "JPEG2000-hul");
+        MODULES_BY_MIMETYPE.put("image/jpx", "JPEG2000-hul");
+        MODULES_BY_MIMETYPE.put("image/jpeg", "JPEG-hul");
+        MODULES_BY_MIMETYPE.put("image/gif", "GIF-hul");
+        MODULES_BY_MIMETYPE.put("image/tiff", "TIFF-hul");
+        MODULES_BY_MIMETYPE.put("text/xml", "XML-hul");
+        MODULES_BY_MIMETYPE.put("application/xml", "XML-hul");
+        MODULES_BY_MIMETYPE.put("text/html", "HTML-hul");
+    }
+
 	public Jhove(Fits fits) throws FitsException {
 		super();
 		this.fits = fits;
@@ -114,12 +134,13 @@ public class Jhove extends ToolBase {
     }
 
 	/**
-	 * processes the file with Jhove using the automatically determined module
+	 * processes the file with Jhove using the automatically determined module.
+	 * JhoveBase and the XmlHandler keep the state of the file being processed,
+	 * so only one file can be processed at a time by each instance.
 	 * @throws FitsToolException
 	 */
-	public ToolOutput extractInfo(File file) throws FitsToolException {
+	public synchronized ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug("Jhove.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
 		Document dom = null;
 		try {
 			dom = characterize(file);
@@ -135,6 +156,68 @@ public class Jhove extends ToolBase {
             logger.error("Jhove OutOfMemoryError while processing "+file.getName());
 			throw new FitsToolException("Jhove OutOfMemoryError while processing "+file.getName(), e);
 		}
+		ToolOutput output = createToolOutput(dom);
+        logger.debug("Jhove.extractInfo finished on " + file.getName());
+		return output;
+	}
+
+	/**
+	 * Processes the file with the Jhove module matching the MIME type reported by
+	 * the tools Jhove depends on, skipping the signature mode pass. Signature mode is
+	 * still used when no hint matches a module or when the hinted module does not find
+	 * the file to be well-formed, so a wrong hint cannot change the result.
+	 * @throws FitsToolException
+	 */
+	public synchronized ToolOutput extractInfo(File file, List<ToolIdentity> identityHints) throws FitsToolException {
+		Module mod = getHintedModule(identityHints);
+		if (mod == null) {
+			return extractInfo(file);
+		}
+        logger.debug("Jhove.extractInfo starting on " + file.getName() + " with module " + mod.getName());
+		Document dom = null;
+		try {
+			dom = getFileInfo(file,mod);
+		} catch (Exception e) {
+			logger.debug("Jhove error using module " + mod.getName() + " for " + file.getName() + ", trying signature mode");
+			return extractInfo(file);
+		}
+		catch (OutOfMemoryError e) {
+            logger.error("Jhove OutOfMemoryError while processing "+file.getName());
+			throw new FitsToolException("Jhove OutOfMemoryError while processing "+file.getName(), e);
+		}
+		String status = XmlUtils.getDomValue(dom,"status");
+		if (status == null || !status.startsWith("Well-Formed")) {
+			return extractInfo(file);
+		}
+		ToolOutput output = createToolOutput(dom);
+        logger.debug("Jhove.extractInfo finished on " + file.getName());
+		return output;
+	}
+
+	/*
+	 * Returns the module for the first hint with a MIME type Jhove has a module for, or null.
+	 */
+	private Module getHintedModule(List<ToolIdentity> identityHints) {
+		for (ToolIdentity identity : identityHints) {
+			String mime = identity.getMime();
+			if (mime == null) {
+				continue;
+			}
+			String moduleName = MODULES_BY_MIMETYPE.get(mime.toLowerCase());
+			if (moduleName != null) {
+				Module mod = jhove.getModule(moduleName);
+				if (mod != null) {
+					return mod;
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Transforms the Jhove XML into FITS XML.
+	 */
+	private ToolOutput createToolOutput(Document dom) throws FitsToolException {
 		String format = XmlUtils.getDomValue(dom,"format");
 		String xsltTransform = (String)transformMap.get(format.toUpperCase());
 
@@ -146,11 +229,7 @@ public class Jhove extends ToolBase {
 			fitsXml = transform(jhoveFitsConfig+"jhove_text_to_fits.xslt",dom);
 		}
 
-		output = new ToolOutput(this,fitsXml,dom, fits);
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
-        logger.debug("Jhove.extractInfo finished on " + file.getName());
-		return output;
+		return new ToolOutput(this,fitsXml,dom, fits);
 	}
 
 	public boolean isEnabled() {
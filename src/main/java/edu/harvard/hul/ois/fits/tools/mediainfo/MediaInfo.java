@@ -39,7 +39,7 @@ public class MediaInfo extends ToolBase {
     private final static String LINUX_NATIVE_LIB_PATH = "tools" + File.separator + "mediainfo" + File.separator + "linux";
 
     private static final Logger logger = Logger.getLogger(MediaInfo.class);
-    private static MediaInfoNativeWrapper mi = null;
+    private MediaInfoNativeWrapper mi = null;
 
     /**
      * Instantiate this class.
@@ -100,11 +100,14 @@ public class MediaInfo extends ToolBase {
 
 	}
 
+	/**
+	 * The native library handle holds the state of the open file, so only
+	 * one file can be processed at a time by each instance.
+	 */
 	@Override
-	public ToolOutput extractInfo(File file) throws FitsToolException {
+	public synchronized ToolOutput extractInfo(File file) throws FitsToolException {
 
 	   logger.debug("MediaInfo.extractInfo starting on " + file.getName());
-	   long startTime = System.currentTimeMillis();
 
 		// TODO: should we initialize the library via a static block?
 	    // Initialize the library
@@ -234,13 +237,11 @@ public class MediaInfo extends ToolBase {
 		// String finalXml = new XMLOutputter(Format.getPrettyFormat()).outputString(fitsXml);
 		// System.out.println("\nFINAL XML:\n" + finalXml);
 
-		output = new ToolOutput(this,fitsXml,rawOut, fits);
+		ToolOutput output = new ToolOutput(this,fitsXml,rawOut, fits);
 
 		// DEBUG
 		// String fitsOutputString = new XMLOutputter(Format.getPrettyFormat()).outputString(output.getFitsXml());
 
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
         logger.debug("MediaInfo.extractInfo finished on " + file.getName());
 
 		return output;
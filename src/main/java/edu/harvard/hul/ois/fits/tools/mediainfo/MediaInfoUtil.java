@@ -126,10 +126,10 @@ public class MediaInfoUtil {
 
 	private final static String TOOL_NAME = "MediaInfo";
 	private static final Logger logger = Logger.getLogger(MediaInfoUtil.class);
-	private static MediaInfoNativeWrapper mi = null;
+	private MediaInfoNativeWrapper mi = null;
 
 	protected MediaInfoUtil(MediaInfoNativeWrapper mi) {
-		MediaInfoUtil.mi = mi;
+		this.mi = mi;
 	}
 
 	protected  Map<String, String> loadGeneralDataMap () {
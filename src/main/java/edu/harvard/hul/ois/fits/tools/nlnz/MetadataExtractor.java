@@ -68,9 +68,12 @@ public class MetadataExtractor extends ToolBase {
 		LogManager.getInstance().addLog(new SLF4JLogger());
 	}
 
-	public ToolOutput extractInfo(File file) throws FitsToolException {
+	/**
+	 * The NLNZ harvester is configured through the Config singleton and its adapters
+	 * are shared, so only one file can be processed at a time by each instance.
+	 */
+	public synchronized ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug("MetadataExtractor.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
 		Document dom = null;
 		//Document rawDom = null;
 
@@ -140,10 +143,8 @@ public class MetadataExtractor extends ToolBase {
 
 		//XmlUtils.printToConsole(dom);
 
-		output = new ToolOutput(this,fitsXml,dom, fits);
-		duration = System.currentTimeMillis()-startTime;
+		ToolOutput output = new ToolOutput(this,fitsXml,dom, fits);
         logger.debug("MetadataExtractor.extractInfo finished on " + file.getName());
-		runStatus = RunStatus.SUCCESSFUL;
 		return output;
 	}
 	/*
@@ -50,11 +50,8 @@ public class ADLTool extends ToolBase {
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug("ADLTool.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
 		Document doc = createXml(file);
-		output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
+		ToolOutput output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
 		logger.debug("ADLTool.extractInfo finishing on " + file.getName());
 		return output;
 	}
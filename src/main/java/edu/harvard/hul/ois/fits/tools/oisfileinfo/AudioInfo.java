@@ -58,11 +58,8 @@ public class AudioInfo extends ToolBase {
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug ("AudioInfo.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
 		Document doc = createXml(file);
-		output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
+		ToolOutput output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
         logger.debug ("AudioInfo.extractInfo finished on " + file.getName());
 		return output;
 	}
@@ -0,0 +1,80 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+
+package edu.harvard.hul.ois.fits.tools.oisfileinfo;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The checksums FileInfo can report in the fileinfo section, as chosen by
+ * output.checksum-algorithms in fits.xml.
+ */
+public enum ChecksumAlgorithm {
+
+	MD5("md5", "MD5", "md5checksum"),
+	SHA1("sha-1", "SHA-1", "sha1checksum"),
+	SHA256("sha-256", "SHA-256", "sha256checksum"),
+	SHA512("sha-512", "SHA-512", "sha512checksum"),
+	CRC32("crc32", null, "crc32checksum");
+
+	private final String name;
+	// Name of the MessageDigest algorithm, null if not provided by the JDK
+	private final String digestName;
+	private final String elementName;
+
+	private ChecksumAlgorithm(String name, String digestName, String elementName) {
+		this.name = name;
+		this.digestName = digestName;
+		this.elementName = elementName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/** Returns the name of the fileinfo element holding the checksum */
+	public String getElementName() {
+		return elementName;
+	}
+
+	/**
+	 * Returns a new digest computing the checksum.
+	 *
+	 * @throws NoSuchAlgorithmException If the JDK does not provide the algorithm.
+	 */
+	public MessageDigest newDigest() throws NoSuchAlgorithmException {
+		if (digestName == null) {
+			return new Crc32Digest();
+		}
+		return MessageDigest.getInstance(digestName);
+	}
+
+	/**
+	 * Returns the algorithm with the given name.
+	 *
+	 * @param name One of md5, sha-1, sha-256, sha-512 or crc32, ignoring case and the hyphen.
+	 * @return The algorithm, or null if there is none with the name.
+	 */
+	public static ChecksumAlgorithm forName(String name) {
+		String key = name.trim().replace("-", "");
+		for (ChecksumAlgorithm algorithm : values()) {
+			if (algorithm.name.replace("-", "").equalsIgnoreCase(key)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
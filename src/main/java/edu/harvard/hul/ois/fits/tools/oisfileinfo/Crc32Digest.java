@@ -0,0 +1,62 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+
+package edu.harvard.hul.ois.fits.tools.oisfileinfo;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * A CRC32 checksum as a MessageDigest, so that it is computed in the same
+ * read of the file as the other digests. The digest is the 4 byte value,
+ * most significant byte first.
+ */
+class Crc32Digest extends MessageDigest {
+
+	private final CRC32 crc = new CRC32();
+
+	Crc32Digest() {
+		super("CRC32");
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		crc.update(input);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int len) {
+		crc.update(input, offset, len);
+	}
+
+	@Override
+	protected void engineUpdate(ByteBuffer input) {
+		crc.update(input);
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return 4;
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		long value = crc.getValue();
+		crc.reset();
+		return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+	}
+
+	@Override
+	protected void engineReset() {
+		crc.reset();
+	}
+}
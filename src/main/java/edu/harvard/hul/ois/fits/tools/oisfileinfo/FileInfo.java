@@ -12,9 +12,27 @@ package edu.harvard.hul.ois.fits.tools.oisfileinfo;
 
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.jdom.Attribute;
 import org.jdom.Document;
@@ -25,12 +43,15 @@ import com.twmacinta.util.MD5;
 
 import edu.harvard.hul.ois.fits.Fits;
 import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
+import edu.harvard.hul.ois.fits.identity.ToolIdentity;
+import edu.harvard.hul.ois.fits.tools.FileContext;
 import edu.harvard.hul.ois.fits.tools.ToolBase;
 import edu.harvard.hul.ois.fits.tools.ToolOutput;
 
 /**
  * The FileInfo tool uses Java system calls to get basic information about
- * a file, as well as calculating an MD5 digest.
+ * a file, as well as calculating the checksums chosen by output.checksum-algorithms
+ * (by default an MD5 digest) in a single read of the file.
  *
  *  @see <a href="http://www.twmacinta.com/myjava/fast_md5.php">Fast MD5 Implementation in Java</a>
  */
@@ -45,8 +66,20 @@ public class FileInfo extends ToolBase {
     private final static Namespace xsiNS = Namespace.getNamespace("xsi","http://www.w3.org/2001/XMLSchema-instance");
     private final static Namespace fitsNS = Namespace.getNamespace(Fits.XML_NAMESPACE);
 
+    private static ExecutorService checksumExecutor;
+    private static ExecutorService deferredExecutor;
+    // tree hash pools by parallelism
+    private static final Map<Integer, ForkJoinPool> treeHashPools = new HashMap<Integer, ForkJoinPool>();
+
     private boolean enabled = true;
     private Fits fits;
+    // The checksums to report, from output.checksum-algorithms
+    private final List<ChecksumAlgorithm> algorithms = new ArrayList<ChecksumAlgorithm>();
+    private final boolean parallelChecksums;
+    // when true the checksums are added to the output after the other tools have finished
+    private final boolean deferredChecksums;
+    // null unless output.tree-hash is enabled
+    private final TreeHash treeHash;
 
 	public FileInfo(Fits fits) throws FitsToolException{
 		super();
@@ -55,20 +88,61 @@ public class FileInfo extends ToolBase {
         info.setName(TOOL_NAME);
 		info.setVersion(TOOL_VERSION);
 		info.setDate(TOOL_DATE);
+
+		List<Object> names = fits.getConfig().getList("output.checksum-algorithms", Arrays.<Object>asList("md5"));
+		for (Object name : names) {
+			if (StringUtils.isBlank(name.toString())) {
+				continue;
+			}
+			ChecksumAlgorithm algorithm = ChecksumAlgorithm.forName(name.toString());
+			if (algorithm == null) {
+				throw new FitsToolException("Unknown checksum algorithm in output.checksum-algorithms: " + name);
+			}
+			if (!algorithms.contains(algorithm)) {
+				algorithms.add(algorithm);
+			}
+		}
+		parallelChecksums = fits.getConfig().getBoolean("output.checksum-algorithms[@parallel]", false);
+		deferredChecksums = fits.getConfig().getBoolean("output.deferred-checksum", false);
+
+		if (fits.getConfig().getBoolean("output.tree-hash[@enabled]", false)) {
+			String name = fits.getConfig().getString("output.tree-hash[@algorithm]", ChecksumAlgorithm.SHA256.getName());
+			ChecksumAlgorithm algorithm = ChecksumAlgorithm.forName(name);
+			if (algorithm == null) {
+				throw new FitsToolException("Unknown checksum algorithm in output.tree-hash: " + name);
+			}
+			long chunkSize = fits.getConfig().getLong("output.tree-hash[@chunk-size-mb]", 64) * 1024 * 1024;
+			if (chunkSize < 1) {
+				throw new FitsToolException("Invalid chunk-size-mb in output.tree-hash: " + chunkSize);
+			}
+			int parallelism = fits.getConfig().getInt("output.tree-hash[@parallelism]", 0);
+			if (parallelism < 1) {
+				parallelism = Runtime.getRuntime().availableProcessors();
+			}
+			treeHash = new TreeHash(algorithm, chunkSize, getTreeHashPool(parallelism));
+		} else {
+			treeHash = null;
+		}
 	}
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
+		return extractInfo(file, null, null);
+	}
+
+	@Override
+	public ToolOutput extractInfo(File file, List<ToolIdentity> identityHints, FileContext context) throws FitsToolException {
         logger.debug("FileInfo.extractInfo starting on " + file.getName());
-        long startTime = System.currentTimeMillis();
-		Document doc = createXml(file);
-		output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
+		boolean deferChecksums = deferredChecksums && isChecksumEnabled(file);
+		Document doc = createXml(file, context, !deferChecksums);
+		ToolOutput output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
+		if (deferChecksums) {
+			output.setDeferredFitsXml(deferChecksums(file));
+		}
         logger.debug("FileInfo.extractInfo finished on " + file.getName());
 		return output;
 	}
 
-	private Document createXml(File file) throws FitsToolException {
+	private Document createXml(File file, FileContext context, boolean withChecksums) throws FitsToolException {
 
 
 		Element root = new Element("fits",fitsNS);
@@ -89,32 +163,251 @@ public class FileInfo extends ToolBase {
 		Element size = new Element("size",fitsNS);
 		size.setText(String.valueOf(file.length()));
 		fileInfo.addContent(size);
-		//Calculate the MD5 checksum
-		if (fits.getConfig().getBoolean("output.enable-checksum")) {
-			@SuppressWarnings("unchecked")
-			List<String> checsumExcludes = (List<String>)(List<?>)fits.getConfig().getList("output.checksum-exclusions[@exclude-exts]");
-			String ext = FilenameUtils.getExtension(file.getPath());
-			if(!hasExcludedExtensionForMD5(ext, checsumExcludes)) {
-				try {
-					String md5Hash = MD5.asHex(MD5.getHash(new File(file.getPath())));
-					Element signature = new Element("md5checksum",fitsNS);
-					signature.setText(md5Hash);
-					fileInfo.addContent(signature);
-				} catch (IOException e) {
-					throw new FitsToolException("Could not calculate the MD5 for "+file.getPath(),e);
-				}
-			}
-
+		//Calculate the checksums
+		Element fileStatus = null;
+		if (withChecksums && isChecksumEnabled(file)) {
+			fileStatus = addChecksums(file, context, fits.getPrecomputedChecksums(file), fits.getManifestChecksums(file), fileInfo);
 		}
 		//fslastmodified
 		Element fslastmodified = new Element("fslastmodified",fitsNS);
 		fslastmodified.setText(String.valueOf(file.lastModified()));
 		fileInfo.addContent(fslastmodified);
 		root.addContent(fileInfo);
+		if (fileStatus != null) {
+			root.addContent(fileStatus);
+		}
 
 		return new Document(root);
     }
 
+	/* True if checksums are enabled and the extension of the file is not excluded */
+	private boolean isChecksumEnabled(File file) {
+		if (!fits.getConfig().getBoolean("output.enable-checksum")) {
+			return false;
+		}
+		@SuppressWarnings("unchecked")
+		List<String> checsumExcludes = (List<String>)(List<?>)fits.getConfig().getList("output.checksum-exclusions[@exclude-exts]");
+		String ext = FilenameUtils.getExtension(file.getPath());
+		return !hasExcludedExtensionForMD5(ext, checsumExcludes);
+	}
+
+	/*
+	 * Adds the checksums and the tree hash of the file to the fileinfo element.
+	 * Returns a filestatus element with the mismatches found when verifying the
+	 * manifest of a bag, or null if there are none.
+	 */
+	private Element addChecksums(File file, FileContext context, Map<ChecksumAlgorithm, String> precomputed,
+			Map<ChecksumAlgorithm, String> manifest, Element fileInfo) throws FitsToolException {
+		Element fileStatus = null;
+		List<String> mismatches = new ArrayList<String>();
+		for (Map.Entry<ChecksumAlgorithm, String> checksum : computeChecksums(file, context, precomputed, manifest, mismatches).entrySet()) {
+			if (algorithms.contains(checksum.getKey())) {
+				Element signature = new Element(checksum.getKey().getElementName(),fitsNS);
+				signature.setText(checksum.getValue());
+				fileInfo.addContent(signature);
+			}
+		}
+		if (!mismatches.isEmpty()) {
+			fileStatus = new Element("filestatus",fitsNS);
+			for (String mismatch : mismatches) {
+				Element message = new Element("message",fitsNS);
+				message.setText(mismatch);
+				fileStatus.addContent(message);
+			}
+		}
+		if (treeHash != null) {
+			// labeled with how it was computed, as it differs from the sequential digest
+			Element signature = new Element("treehash",fitsNS);
+			signature.setAttribute("algorithm", treeHash.getAlgorithm().getName());
+			signature.setAttribute("chunksize", String.valueOf(treeHash.getChunkSize()));
+			signature.setText(computeTreeHash(file, context));
+			fileInfo.addContent(signature);
+		}
+		return fileStatus;
+	}
+
+	/*
+	 * Computes the checksums on the shared deferred checksum pool, so that the output
+	 * of the other tools is not held up by them. The file is read through its own
+	 * context as the shared one is closed once the tools have finished.
+	 */
+	private CompletableFuture<Document> deferChecksums(final File file) {
+		// taken now as they are only registered while the tools run
+		final Map<ChecksumAlgorithm, String> precomputed = fits.getPrecomputedChecksums(file);
+		final Map<ChecksumAlgorithm, String> manifest = fits.getManifestChecksums(file);
+		return CompletableFuture.supplyAsync(new Supplier<Document>() {
+			public Document get() {
+				logger.debug("FileInfo computing deferred checksums of " + file.getName());
+				Element root = new Element("fits",fitsNS);
+				Element fileInfo = new Element("fileinfo",fitsNS);
+				root.addContent(fileInfo);
+				try {
+					Element fileStatus = addChecksums(file, null, precomputed, manifest, fileInfo);
+					if (fileStatus != null) {
+						root.addContent(fileStatus);
+					}
+				} catch (FitsToolException e) {
+					throw new CompletionException(e);
+				}
+				return new Document(root);
+			}
+		}, getDeferredExecutor());
+	}
+
+	/*
+	 * Computes the configured checksums in one read of the file. A checksum is
+	 * taken from Fits instead if it was computed while the file was copied
+	 * from an input stream or hashed, and any checksum listed in the manifest of a bag
+	 * is taken from the manifest. When the manifests are verified, the listed
+	 * checksums are computed as well and the differences added to mismatches.
+	 */
+	private Map<ChecksumAlgorithm, String> computeChecksums(File file, FileContext context, Map<ChecksumAlgorithm, String> precomputed,
+			Map<ChecksumAlgorithm, String> manifest, List<String> mismatches) throws FitsToolException {
+		Map<ChecksumAlgorithm, String> checksums = new EnumMap<ChecksumAlgorithm, String>(ChecksumAlgorithm.class);
+		List<ChecksumAlgorithm> toCompute = new ArrayList<ChecksumAlgorithm>(algorithms);
+		boolean verify = manifest != null && fits.isVerifyManifests();
+		if (verify) {
+			for (ChecksumAlgorithm algorithm : manifest.keySet()) {
+				if (!toCompute.contains(algorithm)) {
+					toCompute.add(algorithm);
+				}
+			}
+		} else if (manifest != null) {
+			for (ChecksumAlgorithm algorithm : algorithms) {
+				if (manifest.containsKey(algorithm)) {
+					checksums.put(algorithm, manifest.get(algorithm));
+					toCompute.remove(algorithm);
+				}
+			}
+		}
+		if (precomputed != null) {
+			for (Map.Entry<ChecksumAlgorithm, String> checksum : precomputed.entrySet()) {
+				if (toCompute.remove(checksum.getKey())) {
+					checksums.put(checksum.getKey(), checksum.getValue());
+				}
+			}
+		}
+		if (!toCompute.isEmpty()) {
+			digestFile(file, context, toCompute, parallelChecksums || verify, checksums);
+		}
+		if (verify) {
+			for (Map.Entry<ChecksumAlgorithm, String> listed : manifest.entrySet()) {
+				String computed = checksums.get(listed.getKey());
+				if (!listed.getValue().equals(computed)) {
+					String mismatch = listed.getKey().getName() + " checksum " + computed
+							+ " does not match the bag manifest, which lists " + listed.getValue();
+					logger.warn(file.getPath() + ": " + mismatch);
+					mismatches.add(mismatch);
+				}
+			}
+		}
+		return checksums;
+	}
+
+	/* Computes the given checksums in one read of the file and adds them to checksums */
+	private void digestFile(File file, FileContext context, List<ChecksumAlgorithm> toCompute, boolean parallel,
+			Map<ChecksumAlgorithm, String> checksums) throws FitsToolException {
+		// read through the shared context, mapped into memory for large files
+		FileContext fileContext = context != null ? context : new FileContext(file, 0, 0, true);
+		try {
+			MessageDigest[] digests = new MessageDigest[toCompute.size()];
+			for (int i = 0; i < digests.length; i++) {
+				digests[i] = toCompute.get(i).newDigest();
+			}
+			Executor executor = null;
+			if (parallel && fileContext.getLength() >= FileContext.MIN_MAPPED_LENGTH) {
+				executor = getChecksumExecutor();
+			}
+			fileContext.digest(executor, digests);
+			for (int i = 0; i < digests.length; i++) {
+				checksums.put(toCompute.get(i), MD5.asHex(digests[i].digest()));
+			}
+		} catch (IOException e) {
+			throw new FitsToolException("Could not calculate the checksums for "+file.getPath(),e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new FitsToolException("Could not calculate the checksums for "+file.getPath(),e);
+		} finally {
+			if (context == null) {
+				try {
+					fileContext.close();
+				} catch (IOException e) {
+					logger.warn("Could not close " + file.getPath() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/* Computes the tree hash of the file on the pool of the tree hash */
+	private String computeTreeHash(File file, FileContext context) throws FitsToolException {
+		FileContext fileContext = context != null ? context : new FileContext(file, 0, 0, true);
+		try {
+			return MD5.asHex(treeHash.compute(fileContext));
+		} catch (IOException e) {
+			throw new FitsToolException("Could not calculate the tree hash for "+file.getPath(),e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new FitsToolException("Could not calculate the tree hash for "+file.getPath(),e);
+		} finally {
+			if (context == null) {
+				try {
+					fileContext.close();
+				} catch (IOException e) {
+					logger.warn("Could not close " + file.getPath() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/* Returns the pool shared by all instances for computing deferred checksums, one thread per processor */
+	private static synchronized Executor getDeferredExecutor() {
+		if (deferredExecutor == null) {
+			deferredExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+				public Thread newThread(Runnable r) {
+					// daemon so an idle pool does not keep the JVM alive
+					Thread thread = new Thread(r, "fits-deferred-checksum-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return deferredExecutor;
+	}
+
+	/* Returns the pool shared by all instances for updating the digests of a file at the same time */
+	private static synchronized Executor getChecksumExecutor() {
+		if (checksumExecutor == null) {
+			// daemon threads that end when idle, so the pool needs no shutdown
+			checksumExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "fits-checksum-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return checksumExecutor;
+	}
+
+	/* Returns the pool shared by all instances for computing tree hashes with the given parallelism */
+	private static synchronized ForkJoinPool getTreeHashPool(int parallelism) {
+		ForkJoinPool pool = treeHashPools.get(parallelism);
+		if (pool == null) {
+			// daemon threads that end when idle, so the pool needs no shutdown
+			pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+					thread.setName("fits-tree-hash-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, null, false);
+			treeHashPools.put(parallelism, pool);
+		}
+		return pool;
+	}
+
 	// NOTE: This check is separate from the tool extension exclusions
 	public boolean hasExcludedExtensionForMD5(String ext, List<String> excludedExtensions) {
 		for(String extension : excludedExtensions) {
@@ -0,0 +1,123 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+
+package edu.harvard.hul.ois.fits.tools.oisfileinfo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import edu.harvard.hul.ois.fits.tools.FileContext;
+
+/**
+ * A tree hash of a file, computed in parallel. The file is split into
+ * chunks of a fixed size, the digest of each chunk is computed on a
+ * ForkJoinPool, and the root is the digest of the chunk digests
+ * concatenated in file order. An empty file has one empty chunk.
+ * <p>
+ * The root depends on the algorithm and the chunk size, so it is not the
+ * sequential digest of the file and both must be reported with it.
+ */
+public class TreeHash {
+
+	private final ChecksumAlgorithm algorithm;
+	private final long chunkSize;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructor
+	 *
+	 * @param algorithm The algorithm of the chunk digests and of the root.
+	 * @param chunkSize The size of the chunks in bytes.
+	 * @param pool      The pool computing the chunk digests.
+	 */
+	public TreeHash(ChecksumAlgorithm algorithm, long chunkSize, ForkJoinPool pool) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Invalid tree hash chunk size: " + chunkSize);
+		}
+		this.algorithm = algorithm;
+		this.chunkSize = chunkSize;
+		this.pool = pool;
+	}
+
+	public ChecksumAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Computes the root digest of the file.
+	 *
+	 * @param context The context to read the file through.
+	 * @return The root digest.
+	 * @throws IOException If the file could not be read.
+	 * @throws NoSuchAlgorithmException If the JDK does not provide the algorithm.
+	 */
+	public byte[] compute(FileContext context) throws IOException, NoSuchAlgorithmException {
+		// check the algorithm before forking
+		MessageDigest root = algorithm.newDigest();
+		int chunks = (int) Math.max(1, (context.getLength() + chunkSize - 1) / chunkSize);
+		byte[][] leaves = new byte[chunks][];
+		try {
+			pool.invoke(new ChunkRange(context, leaves, 0, chunks));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		for (byte[] leaf : leaves) {
+			root.update(leaf);
+		}
+		return root.digest();
+	}
+
+	/* Computes the digests of a range of chunks, splitting it in two until one chunk is left */
+	private class ChunkRange extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileContext context;
+		private final byte[][] leaves;
+		private final int from;
+		private final int to;
+
+		ChunkRange(FileContext context, byte[][] leaves, int from, int to) {
+			this.context = context;
+			this.leaves = leaves;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkRange(context, leaves, from, middle), new ChunkRange(context, leaves, middle, to));
+				return;
+			}
+			try {
+				MessageDigest digest = algorithm.newDigest();
+				context.digest(null, from * chunkSize, chunkSize, digest);
+				leaves[from] = digest.digest();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} catch (NoSuchAlgorithmException e) {
+				// checked in compute(FileContext) already
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+}
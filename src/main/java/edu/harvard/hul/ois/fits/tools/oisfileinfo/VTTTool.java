@@ -12,6 +12,9 @@ package edu.harvard.hul.ois.fits.tools.oisfileinfo;
 
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
 import java.util.Scanner;
 
 import org.jdom.Attribute;
@@ -22,6 +25,8 @@ import org.apache.log4j.Logger;
 
 import edu.harvard.hul.ois.fits.Fits;
 import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
+import edu.harvard.hul.ois.fits.identity.ToolIdentity;
+import edu.harvard.hul.ois.fits.tools.FileContext;
 import edu.harvard.hul.ois.fits.tools.ToolBase;
 import edu.harvard.hul.ois.fits.tools.ToolOutput;
 
@@ -48,17 +53,19 @@ public class VTTTool extends ToolBase {
 	}
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
+		return extractInfo(file, null, null);
+	}
+
+	@Override
+	public ToolOutput extractInfo(File file, List<ToolIdentity> identityHints, FileContext context) throws FitsToolException {
 		logger.debug("VTTTool.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
-		Document doc = createXml(file);
-		output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
+		Document doc = createXml(file, context);
+		ToolOutput output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
 		logger.debug("VTTTool.extractInfo finishing on " + file.getName());
 		return output;
 	}
 
-	private Document createXml(File file) throws FitsToolException {
+	private Document createXml(File file, FileContext context) throws FitsToolException {
 
 		Element root = new Element("fits",fitsNS);
 		root.setAttribute(new Attribute("schemaLocation",
@@ -70,19 +77,12 @@ public class VTTTool extends ToolBase {
 			boolean isVtt = false;
 			try	{
 
-				Scanner scanner = new Scanner(new FileReader(file));
-				try {
-					// Should be on the 1st line
-					String firstLine = scanner.nextLine();
+				// Should be on the 1st line
+				String firstLine = readFirstLine(file, context);
 
-					// Identifier should be on the 1st line
-					if(firstLine.trim().contains(VTT_IDENTIFIER)) {
-						isVtt = true;
-					}
-				}
-				finally {
-					//ensure the underlying stream is always closed
-					scanner.close();
+				// Identifier should be on the 1st line
+				if(firstLine.trim().contains(VTT_IDENTIFIER)) {
+					isVtt = true;
 				}
 			}
 			catch (Exception e)	{
@@ -119,6 +119,31 @@ public class VTTTool extends ToolBase {
 		return new Document(root);
 	}
 
+	/*
+	 * Takes the first line from the header in the context when it holds the whole line,
+	 * otherwise reads it from the file.
+	 */
+	private String readFirstLine(File file, FileContext context) throws IOException {
+		if (context != null) {
+			String header = Charset.defaultCharset().decode(context.getHeader()).toString();
+			int end = header.indexOf('\n');
+			if (end >= 0) {
+				return header.substring(0, end);
+			}
+			if (context.isComplete() && !header.isEmpty()) {
+				return header;
+			}
+		}
+		Scanner scanner = new Scanner(new FileReader(file));
+		try {
+			return scanner.nextLine();
+		}
+		finally {
+			//ensure the underlying stream is always closed
+			scanner.close();
+		}
+	}
+
 	public boolean isEnabled() {
 		return enabled;
 	}
@@ -55,11 +55,8 @@ public class XmlMetadata extends ToolBase {
 
 	public ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug("XmlMetadata.extractInfo starting on " + file.getName());
-		long startTime = System.currentTimeMillis();
 		Document doc = createXml(file);
-		output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
-		duration = System.currentTimeMillis()-startTime;
-		runStatus = RunStatus.SUCCESSFUL;
+		ToolOutput output = new ToolOutput(this,(Document)doc.clone(),doc, fits);
         logger.debug("XmlMetadata.extractInfo finished on " + file.getName());
 		return output;
 	}
@@ -432,7 +432,6 @@ public class TikaTool extends ToolBase {
 
     public ToolOutput extractInfo(File file) throws FitsToolException {
         logger.debug("TikaTool.extractInfo starting on " + file.getName());
-    	long startTime = System.currentTimeMillis();
         Metadata metadata = new Metadata();
         FileInputStream instrm = null;
         try {
@@ -454,8 +453,6 @@ public class TikaTool extends ToolBase {
         // Now construct the raw data JDOM document
         Document rawData = buildRawData (metadata);
         ToolOutput output = new ToolOutput (this, toolData, rawData, fits);
-        duration = System.currentTimeMillis()-startTime;
-        runStatus = RunStatus.SUCCESSFUL;
         logger.debug ("Tika.extractInfo finished on " + file.getName());
         return output;
     }
@@ -22,6 +22,7 @@ public abstract class CommandLine {
 	public static String exec(List<String> cmd, String directory) throws FitsToolCLIException {
 		String output = null;
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		Process proc = null;
 		try {
 			//Runtime rt = Runtime.getRuntime();
 			//Process proc = rt.exec(cmd.toString());
@@ -30,7 +31,7 @@ public abstract class CommandLine {
 			if(directory != null) {
 				builder.directory(new File(directory));
 			}
-			Process proc = builder.start();
+			proc = builder.start();
 
 			StreamGobbler errorGobbler = new StreamGobbler(proc.getErrorStream(),bos);
 			StreamGobbler outputGobbler = new StreamGobbler(proc.getInputStream(),bos);
@@ -43,10 +44,19 @@ public abstract class CommandLine {
 		    bos.flush();
 			output = new String(bos.toByteArray());
 		}
+		catch (InterruptedException e) {
+			// the tool was cancelled, e.g. after running past its timeout
+			Thread.currentThread().interrupt();
+			throw new FitsToolCLIException("Interrupted while waiting for external command line routine",e);
+		}
 		catch (Exception e) {
 			throw new FitsToolCLIException("Error calling external command line routine",e);
 		}
 		finally {
+			// make sure an abandoned child process does not keep running
+			if (proc != null && proc.isAlive()) {
+				proc.destroyForcibly();
+			}
 			try {
 				bos.close();
 			} catch (IOException e) {
@@ -53,6 +53,9 @@ public class ParentLastClassLoader extends ClassLoader {
 		loadByParentClassLoader.add("edu.harvard.hul.ois.fits.exceptions.FitsToolException");
 		loadByParentClassLoader.add("edu.harvard.hul.ois.fits.tools.Tool");
 		loadByParentClassLoader.add("edu.harvard.hul.ois.fits.tools.ToolInfo");
+		loadByParentClassLoader.add("edu.harvard.hul.ois.fits.tools.FileContext"); // read once and shared by all tools
+		loadByParentClassLoader.add("edu.harvard.hul.ois.fits.tools.utils.XsltTemplatesCache"); // compiled stylesheets shared by all tools
+		loadByParentClassLoader.add("edu.harvard.hul.ois.fits.identity"); // identity hints are passed between tools
 		loadByParentClassLoader.add("org.apache.xerces");
 		loadByParentClassLoader.add("org.w3c");
 		loadByParentClassLoader.add("org.jdom");
@@ -0,0 +1,191 @@
+//
+// Copyright (c) 2016 by The President and Fellows of Harvard College
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the License at:
+// http://www.apache.org/licenses/LICENSE-2.0
+// Unless required by applicable law or agreed to in writing, software distributed under the License is
+// distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permission and limitations under the License.
+//
+
+
+package edu.harvard.hul.ois.fits.tools.utils;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.jaxp.TemplatesImpl;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Xslt30Transformer;
+import net.sf.saxon.s9api.XsltExecutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide cache of compiled XSLT stylesheets. Compiling a stylesheet
+ * takes much longer than applying it, so each stylesheet is compiled once by
+ * the Saxon s9api and the thread-safe XsltExecutable is shared by all tools
+ * and files. An entry is compiled again when the modification time of the
+ * stylesheet changes. Each thread reuses one Xslt30Transformer per stylesheet.
+ * <p>
+ * This class is loaded by the parent class loader so that tools loaded by
+ * their own class loaders share the one cache.
+ */
+public class XsltTemplatesCache {
+
+	private static final Logger logger = LoggerFactory.getLogger( XsltTemplatesCache.class );
+
+	private static class Entry {
+		private final long lastModified;
+		private final XsltExecutable executable;
+
+		Entry(long lastModified, XsltExecutable executable) {
+			this.lastModified = lastModified;
+			this.executable = executable;
+		}
+	}
+
+	// keyed by the absolute path of the stylesheet
+	private static final Map<String,Entry> cache = new ConcurrentHashMap<String,Entry>();
+	// stylesheets listed in the XSLT maps of the tools, compiled by preload()
+	private static final Set<String> registered = ConcurrentHashMap.newKeySet();
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	// stylesheets and the trees they are applied to must share one Saxon configuration
+	private static final Processor processor = new Processor(false);
+	// transformers are not thread-safe but can be reused for one file after another;
+	// weak keys let the transformers of a recompiled stylesheet be collected
+	private static final ThreadLocal<Map<XsltExecutable,Xslt30Transformer>> transformers = new ThreadLocal<Map<XsltExecutable,Xslt30Transformer>>() {
+		protected Map<XsltExecutable,Xslt30Transformer> initialValue() {
+			return new WeakHashMap<XsltExecutable,Xslt30Transformer>();
+		}
+	};
+
+	private XsltTemplatesCache() {
+	}
+
+	/**
+	 * Returns the compiled stylesheet, compiling it if it is not cached or
+	 * has been modified since it was compiled.
+	 *
+	 * @param xslt The path of the stylesheet.
+	 * @return The compiled stylesheet.
+	 * @throws SaxonApiException If the stylesheet cannot be compiled.
+	 */
+	public static XsltExecutable getExecutable(String xslt) throws SaxonApiException {
+		File file = new File(xslt).getAbsoluteFile();
+		String key = file.getPath();
+		long lastModified = file.lastModified();
+		Entry entry = cache.get(key);
+		if (entry != null && entry.lastModified == lastModified) {
+			hits.incrementAndGet();
+			return entry.executable;
+		}
+		misses.incrementAndGet();
+		// two threads may compile the same stylesheet at once; either result can be cached
+		XsltExecutable executable = compile(file);
+		cache.put(key, new Entry(lastModified, executable));
+		return executable;
+	}
+
+	/**
+	 * Returns the transformer of the current thread for the stylesheet. It must
+	 * not be used by other threads.
+	 *
+	 * @param xslt The path of the stylesheet.
+	 * @return The transformer, ready to be applied to the next input.
+	 * @throws SaxonApiException If the stylesheet cannot be compiled.
+	 */
+	public static Xslt30Transformer getTransformer(String xslt) throws SaxonApiException {
+		XsltExecutable executable = getExecutable(xslt);
+		Map<XsltExecutable,Xslt30Transformer> threadTransformers = transformers.get();
+		Xslt30Transformer transformer = threadTransformers.get(executable);
+		if (transformer == null) {
+			transformer = executable.load30();
+			threadTransformers.put(executable, transformer);
+		}
+		return transformer;
+	}
+
+	/**
+	 * Returns the compiled stylesheet for use through JAXP.
+	 *
+	 * @param xslt The path of the stylesheet.
+	 * @return The compiled stylesheet.
+	 * @throws TransformerConfigurationException If the stylesheet cannot be compiled.
+	 */
+	public static Templates getTemplates(String xslt) throws TransformerConfigurationException {
+		try {
+			return new TemplatesImpl(getExecutable(xslt));
+		} catch (SaxonApiException e) {
+			throw new TransformerConfigurationException(e);
+		}
+	}
+
+	/**
+	 * Records a stylesheet to be compiled by the next call to preload().
+	 *
+	 * @param xslt The path of the stylesheet.
+	 */
+	public static void register(String xslt) {
+		registered.add(new File(xslt).getAbsolutePath());
+	}
+
+	/**
+	 * Compiles the registered stylesheets that are not cached yet. A stylesheet
+	 * that cannot be compiled is logged and reported when a tool uses it.
+	 */
+	public static void preload() {
+		for (String xslt : registered) {
+			Entry entry = cache.get(xslt);
+			if (entry != null && entry.lastModified == new File(xslt).lastModified()) {
+				continue;
+			}
+			try {
+				getExecutable(xslt);
+			} catch (SaxonApiException e) {
+				logger.warn("Could not compile " + xslt + ": " + e.getMessage());
+			}
+		}
+		logger.debug("XSLT cache: " + cache.size() + " stylesheets, " + hits.get() + " hits, " + misses.get() + " misses");
+	}
+
+	/** Returns the number of times a compiled stylesheet was reused */
+	public static long getHitCount() {
+		return hits.get();
+	}
+
+	/** Returns the number of times a stylesheet was compiled */
+	public static long getMissCount() {
+		return misses.get();
+	}
+
+	/** Returns the number of cached stylesheets */
+	public static int size() {
+		return cache.size();
+	}
+
+	/** Empties the cache and resets the counters */
+	public static void clear() {
+		cache.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/* An XsltCompiler is not thread-safe, so compiling is serialized */
+	private static synchronized XsltExecutable compile(File xslt) throws SaxonApiException {
+		logger.debug("Compiling " + xslt.getPath());
+		return processor.newXsltCompiler().compile(new StreamSource(xslt));
+	}
+
+}
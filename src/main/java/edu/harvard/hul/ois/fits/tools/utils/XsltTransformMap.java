@@ -10,6 +10,7 @@
 
 package edu.harvard.hul.ois.fits.tools.utils;
 
+import java.io.File;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
@@ -40,6 +41,8 @@ public class XsltTransformMap {
 		    String format = sub.getString("[@format]");
 		    String transform = sub.getString("[@transform]");
 		    mappings.put(format,transform);
+		    // the stylesheets are in the directory of the map and compiled when the ToolBelt is constructed
+		    XsltTemplatesCache.register(new File(config).getAbsoluteFile().getParent() + File.separator + transform);
 		}
 		return mappings;
 	}
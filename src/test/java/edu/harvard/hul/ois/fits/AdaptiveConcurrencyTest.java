@@ -0,0 +1,102 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class AdaptiveConcurrencyTest extends AbstractLoggingTest {
+
+	/**
+	 * Tests that the limits grow while the throughput holds up and are cut
+	 * when it drops.
+	 */
+	@Test
+	public void additiveIncreaseMultiplicativeDecreaseTest() {
+		long start = System.currentTimeMillis();
+		AdaptiveConcurrency adaptive = new AdaptiveConcurrency(1, 8, 2, 2, 1000);
+		adaptive.setInitialFiles(4);
+		assertEquals(4, adaptive.getFileLimit().getLimit());
+
+		// 10 files per second
+		finishFiles(adaptive, 10, start + 1000);
+		assertEquals(5, adaptive.getFileLimit().getLimit());
+		// 20 files per second
+		finishFiles(adaptive, 20, start + 2000);
+		assertEquals(6, adaptive.getFileLimit().getLimit());
+		// 2 files per second
+		finishFiles(adaptive, 2, start + 3000);
+		assertEquals(4, adaptive.getFileLimit().getLimit());
+		// never below the minimum
+		finishFiles(adaptive, 1, start + 5000);
+		finishFiles(adaptive, 1, start + 15000);
+		finishFiles(adaptive, 1, start + 115000);
+		assertEquals(1, adaptive.getFileLimit().getLimit());
+	}
+
+	/**
+	 * Tests that the tool limit grows only while tools wait to be run.
+	 */
+	@Test
+	public void toolLimitTest() {
+		long start = System.currentTimeMillis();
+		AdaptiveConcurrency adaptive = new AdaptiveConcurrency(1, 8, 1, 4, 1000);
+		adaptive.getToolLimit().setLimit(2);
+
+		adaptive.toolFinished(0, 100);
+		finishFiles(adaptive, 10, start + 1000);
+		assertEquals(2, adaptive.getToolLimit().getLimit());
+
+		adaptive.toolFinished(100, 100);
+		finishFiles(adaptive, 10, start + 2000);
+		assertEquals(3, adaptive.getToolLimit().getLimit());
+	}
+
+	@Test
+	public void concurrencyLimitTest() throws InterruptedException {
+		ConcurrencyLimit limit = new ConcurrencyLimit(2);
+		limit.acquire();
+		limit.acquire();
+		assertEquals(2, limit.getInUse());
+		limit.setLimit(1);
+		limit.release();
+		limit.release();
+		limit.acquire();
+		assertEquals(1, limit.getInUse());
+		limit.release();
+		limit.awaitIdle();
+	}
+
+	@Test
+	public void concurrencyLimitAsyncTest() throws InterruptedException {
+		ConcurrencyLimit limit = new ConcurrencyLimit(1);
+		CompletableFuture<Void> first = limit.acquireAsync();
+		CompletableFuture<Void> second = limit.acquireAsync();
+		CompletableFuture<Void> third = limit.acquireAsync();
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+
+		// raising the limit grants the waiters in order
+		limit.setLimit(2);
+		assertTrue(second.isDone());
+		assertFalse(third.isDone());
+		limit.release();
+		assertTrue(third.isDone());
+		assertEquals(2, limit.getInUse());
+		limit.release();
+		limit.release();
+		limit.awaitIdle();
+	}
+
+	private static void finishFiles(AdaptiveConcurrency adaptive, int files, long end) {
+		for (int i = 1; i < files; i++) {
+			adaptive.fileFinished(end - 500);
+		}
+		adaptive.fileFinished(end);
+	}
+}
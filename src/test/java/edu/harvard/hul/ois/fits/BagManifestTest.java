@@ -0,0 +1,99 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+import edu.harvard.hul.ois.fits.tools.oisfileinfo.ChecksumAlgorithm;
+
+public class BagManifestTest extends AbstractLoggingTest {
+
+	// not the MD5 of the payload file, so that a reported value must come from the manifest
+	private static final String LISTED_MD5 = "0123456789abcdef0123456789abcdef";
+
+	private File bagDir;
+	private File payload;
+
+	@Before
+	public void createBag() throws Exception {
+		bagDir = File.createTempFile("fits-bag", "");
+		bagDir.delete();
+		bagDir.mkdir();
+		payload = new File(bagDir, "data/sub dir/payload.txt");
+		FileUtils.writeStringToFile(payload, "payload", StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(new File(bagDir, "bagit.txt"),
+				"BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n", StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(new File(bagDir, "manifest-md5.txt"),
+				LISTED_MD5.toUpperCase() + "  data/sub dir/payload.txt\n", StandardCharsets.UTF_8);
+		FileUtils.writeStringToFile(new File(bagDir, "manifest-sha256.txt"),
+				hex("SHA-256", "payload") + "\tdata/sub dir/payload.txt\n\n", StandardCharsets.UTF_8);
+	}
+
+	@After
+	public void deleteBag() throws Exception {
+		FileUtils.deleteDirectory(bagDir);
+	}
+
+	/**
+	 * Tests that the checksums of all manifests are read by the path of the file.
+	 */
+	@Test
+	public void readTest() throws Exception {
+		assertTrue(BagManifest.isBag(bagDir));
+		assertFalse(BagManifest.isBag(payload.getParentFile()));
+
+		BagManifest manifest = BagManifest.read(bagDir);
+		assertEquals(1, manifest.size());
+		Map<ChecksumAlgorithm, String> checksums = manifest.getChecksums(new File(bagDir, "data/../data/sub dir/payload.txt"));
+		assertEquals(LISTED_MD5, checksums.get(ChecksumAlgorithm.MD5));
+		assertEquals(hex("SHA-256", "payload"), checksums.get(ChecksumAlgorithm.SHA256));
+		assertNull(manifest.getChecksums(new File(bagDir, "bagit.txt")));
+	}
+
+	/**
+	 * Tests that FileInfo reports the checksum listed in the manifest without
+	 * computing it, and reports the mismatch when the manifest is verified.
+	 */
+	@Test
+	public void reuseAndVerifyTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_fileinfo.xml"));
+		try {
+			fits.addBag(bagDir);
+			Element root = fits.examine(payload).getFitsXml().getRootElement();
+			Namespace ns = root.getNamespace();
+			assertEquals(LISTED_MD5, root.getChild("fileinfo", ns).getChildText("md5checksum", ns));
+			assertNull(root.getChild("filestatus", ns).getChild("message", ns));
+
+			fits.setVerifyManifests(true);
+			root = fits.examine(payload).getFitsXml().getRootElement();
+			assertEquals(hex("MD5", "payload"), root.getChild("fileinfo", ns).getChildText("md5checksum", ns));
+			String message = root.getChild("filestatus", ns).getChildText("message", ns);
+			assertTrue(message, message.contains(LISTED_MD5));
+		} finally {
+			fits.shutdown();
+		}
+	}
+
+	private static String hex(String algorithm, String content) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance(algorithm).digest(content.getBytes(StandardCharsets.UTF_8))) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,68 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class DuplicateFinderTest extends AbstractLoggingTest {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = File.createTempFile("fits-duplicates", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void deleteDir() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Tests that copies and hard links are grouped with the first file, and that
+	 * a file differing only in the middle is not.
+	 */
+	@Test
+	public void findGroupsTest() throws Exception {
+		byte[] content = new byte[20000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		File original = createFile("original.bin", content);
+		File copy = createFile("copy.bin", content);
+		content[10000]++;
+		File changed = createFile("changed.bin", content);
+		File link = new File(dir, "link.bin");
+		Files.createLink(link.toPath(), original.toPath());
+		File unique = createFile("unique.bin", new byte[10]);
+
+		List<DuplicateFinder.Group> groups = new DuplicateFinder().findGroups(Arrays.asList(original, copy, changed, link, unique));
+		assertEquals(1, groups.size());
+		DuplicateFinder.Group group = groups.get(0);
+		assertEquals(original, group.getPrimary());
+		assertEquals(2, group.getCopies().size());
+		assertTrue(group.getCopies().contains(copy));
+		assertTrue(group.getCopies().contains(link));
+		assertNotNull(group.getMd5());
+	}
+
+	private File createFile(String name, byte[] content) throws Exception {
+		File file = new File(dir, name);
+		FileUtils.writeByteArrayToFile(file, content);
+		return file;
+	}
+}
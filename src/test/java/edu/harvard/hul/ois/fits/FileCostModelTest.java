@@ -0,0 +1,57 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class FileCostModelTest extends AbstractLoggingTest {
+
+	/**
+	 * Tests that the cost of a file is estimated from its size and the time
+	 * per byte learned for its extension.
+	 */
+	@Test
+	public void estimateTest() {
+		FileCostModel model = new FileCostModel();
+		model.record(new File("a.mov"), 10000000, 10000);
+		model.record(new File("b.txt"), 10000000, 100);
+
+		double mov = model.estimate(new File("c.MOV"), 5000000);
+		double txt = model.estimate(new File("d.txt"), 50000000);
+		assertEquals(5000, mov, 0.001);
+		assertTrue("a large text file should cost less than a smaller video", txt < mov);
+		// an unknown extension gets the average time per byte
+		assertEquals(5050, model.estimate(new File("e.pdf"), 10000000), 0.001);
+	}
+
+	/**
+	 * Tests that the learned times survive a save and load.
+	 */
+	@Test
+	public void saveAndLoadTest() throws Exception {
+		FileCostModel model = new FileCostModel();
+		model.record(new File("a.mov"), 10000000, 10000);
+		File file = File.createTempFile("fits-cost-model", ".properties");
+		try {
+			model.save(file);
+			FileCostModel loaded = new FileCostModel();
+			loaded.load(file);
+			assertEquals(model.estimate(new File("b.mov"), 2000000), loaded.estimate(new File("b.mov"), 2000000), 0.001);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void schedulePolicyTest() {
+		assertEquals(SchedulePolicy.LARGEST_FIRST, SchedulePolicy.forName("Largest-First"));
+		assertEquals(SchedulePolicy.COST_MODEL, SchedulePolicy.forName("cost-model"));
+		assertNull(SchedulePolicy.forName("random"));
+	}
+}
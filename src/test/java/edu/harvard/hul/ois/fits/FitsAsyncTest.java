@@ -0,0 +1,120 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.Element;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.exceptions.FitsConfigurationException;
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+import edu.harvard.hul.ois.fits.tools.IdentityHintTestTool;
+
+public class FitsAsyncTest extends AbstractLoggingTest {
+
+	/**
+	 * Tests that examineAsync() returns while a tool is still running and
+	 * completes once the tool has been given up on.
+	 */
+	@Test
+	public void examineAsyncTimeoutTest() throws Exception {
+		File fitsConfigFile = new File("testfiles/properties/fits_test_tool_timeout.xml");
+		Fits fits = new Fits(null, fitsConfigFile);
+
+		CompletableFuture<FitsOutput> future = fits.examineAsync(fitsConfigFile);
+		assertFalse("examineAsync() should not wait for the tools", future.isDone());
+		FitsOutput fitsOut = future.get(30, TimeUnit.SECONDS);
+		assertEquals(1, fitsOut.getCaughtThrowables().size());
+		Element root = fitsOut.getFitsXml().getRootElement();
+		Element statistics = root.getChild("statistics", root.getNamespace());
+		assertEquals("timed out", statistics.getChild("tool", root.getNamespace()).getAttributeValue("status"));
+		fits.shutdown();
+	}
+
+	/**
+	 * Tests that dependent tools are chained and the output is consolidated on
+	 * the given executor.
+	 */
+	@Test
+	public void examineAsyncExecutorTest() throws Exception {
+		File fitsConfigFile = new File("testfiles/properties/fits_test_tool_dependency.xml");
+		Fits fits = new Fits(null, fitsConfigFile);
+		IdentityHintTestTool hintTool = (IdentityHintTestTool)fits.getToolbelt().getTools().get(0);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			FitsOutput fitsOut = fits.examineAsync(fitsConfigFile, executor).get(30, TimeUnit.SECONDS);
+			assertNotNull(fitsOut.getFitsXml());
+			assertEquals(1, hintTool.getIdentityHints().size());
+			assertEquals("text/xml", hintTool.getIdentityHints().get(0).getMime());
+		} finally {
+			executor.shutdown();
+			fits.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a missing file completes the future exceptionally.
+	 */
+	@Test
+	public void examineAsyncMissingFileTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_tool_dependency.xml"));
+		CompletableFuture<FitsOutput> future = fits.examineAsync(new File("testfiles/no_such_file.txt"));
+		assertTrue(future.isCompletedExceptionally());
+		try {
+			future.get();
+			fail("Expected the examination of a missing file to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof FitsConfigurationException);
+		}
+		fits.shutdown();
+	}
+
+	/**
+	 * Tests that examineAll() returns one result for every path, with an error
+	 * for a file that cannot be examined.
+	 */
+	@Test
+	public void examineAllTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_tool_dependency.xml"));
+		List<Path> paths = Arrays.asList(
+				new File("testfiles/properties/fits_test_tool_dependency.xml").toPath(),
+				new File("testfiles/properties/fits_test_tool_pool.xml").toPath(),
+				new File("testfiles/no_such_file.txt").toPath(),
+				new File("testfiles/properties/fits_test_routing.xml").toPath());
+
+		Iterator<FitsBatchResult> results = fits.examineAll(paths.iterator(), 2);
+		Set<Path> examined = new HashSet<Path>();
+		List<FitsBatchResult> failed = new ArrayList<FitsBatchResult>();
+		while (results.hasNext()) {
+			FitsBatchResult result = results.next();
+			assertTrue(examined.add(result.getPath()));
+			if (result.isSuccessful()) {
+				assertNotNull(result.getOutput().getFitsXml());
+			} else {
+				failed.add(result);
+			}
+		}
+		assertEquals(new HashSet<Path>(paths), examined);
+		assertEquals(1, failed.size());
+		assertEquals(paths.get(2), failed.get(0).getPath());
+		assertTrue(failed.get(0).getError() instanceof FitsConfigurationException);
+		fits.shutdown();
+	}
+}
@@ -0,0 +1,142 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.exceptions.FitsException;
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class FitsInputStreamTest extends AbstractLoggingTest {
+
+	/**
+	 * Tests that a stream is examined under its original name, with the MD5
+	 * computed while spooling, and that the spooled file is removed.
+	 */
+	@Test
+	public void examineInputStreamTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_fileinfo.xml"));
+		File inputFile = new File("testfiles/3426592.jpg");
+		byte[] content = FileUtils.readFileToByteArray(inputFile);
+
+		FitsOutput fitsOut;
+		InputStream in = new FileInputStream(inputFile);
+		try {
+			fitsOut = fits.examine(in, "uploads/3426592.jpg", inputFile.length());
+		} finally {
+			in.close();
+		}
+
+		Element root = fitsOut.getFitsXml().getRootElement();
+		Namespace ns = root.getNamespace();
+		Element fileinfo = root.getChild("fileinfo", ns);
+		assertEquals("3426592.jpg", fileinfo.getChildText("filename", ns));
+		assertEquals(String.valueOf(content.length), fileinfo.getChildText("size", ns));
+		assertEquals(md5Hex(content), fileinfo.getChildText("md5checksum", ns));
+		assertFalse(new File(fileinfo.getChildText("filepath", ns)).exists());
+		fits.shutdown();
+	}
+
+	/**
+	 * Tests that all configured checksums are computed while spooling.
+	 */
+	@Test
+	public void examineInputStreamChecksumsTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_checksums.xml"));
+		File inputFile = new File("testfiles/3426592.jpg");
+		byte[] content = FileUtils.readFileToByteArray(inputFile);
+
+		FitsOutput fitsOut;
+		InputStream in = new FileInputStream(inputFile);
+		try {
+			fitsOut = fits.examine(in, "3426592.jpg", inputFile.length());
+		} finally {
+			in.close();
+		}
+
+		Element root = fitsOut.getFitsXml().getRootElement();
+		Namespace ns = root.getNamespace();
+		Element fileinfo = root.getChild("fileinfo", ns);
+		assertEquals(hex("MD5", content), fileinfo.getChildText("md5checksum", ns));
+		assertEquals(hex("SHA-1", content), fileinfo.getChildText("sha1checksum", ns));
+		assertEquals(hex("SHA-256", content), fileinfo.getChildText("sha256checksum", ns));
+		assertEquals(hex("SHA-512", content), fileinfo.getChildText("sha512checksum", ns));
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		assertEquals(String.format("%08x", crc.getValue()), fileinfo.getChildText("crc32checksum", ns));
+		fits.shutdown();
+	}
+
+	/**
+	 * Tests that deferred checksums are computed from the spooled file, which is
+	 * removed only once they are done.
+	 */
+	@Test
+	public void examineInputStreamDeferredTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_deferred_checksum.xml"));
+		File inputFile = new File("testfiles/3426592.jpg");
+		byte[] content = FileUtils.readFileToByteArray(inputFile);
+
+		FitsOutput fitsOut;
+		InputStream in = new FileInputStream(inputFile);
+		try {
+			fitsOut = fits.examine(in, "uploads/3426592.jpg", inputFile.length()).getDeferredChecksums().get();
+		} finally {
+			in.close();
+		}
+
+		Element root = fitsOut.getFitsXml().getRootElement();
+		Namespace ns = root.getNamespace();
+		Element fileinfo = root.getChild("fileinfo", ns);
+		assertEquals(hex("MD5", content), fileinfo.getChildText("md5checksum", ns));
+		assertEquals(hex("SHA-256", content), fileinfo.getChildText("sha256checksum", ns));
+		assertNotNull(fileinfo.getChildText("treehash", ns));
+		File spooled = new File(fileinfo.getChildText("filepath", ns));
+		// deleted by the callback that may run just after the future completes
+		for (int i = 0; i < 50 && spooled.exists(); i++) {
+			Thread.sleep(20);
+		}
+		assertFalse(spooled.exists());
+		fits.shutdown();
+	}
+
+	/**
+	 * Tests that a stream shorter than the given length is reported.
+	 */
+	@Test
+	public void examineTruncatedInputStreamTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_fileinfo.xml"));
+		try {
+			fits.examine(new ByteArrayInputStream(new byte[10]), "truncated.txt", 20);
+			fail("Expected a FitsException for a truncated stream");
+		} catch (FitsException e) {
+			// expected
+		}
+		fits.shutdown();
+	}
+
+	private static String md5Hex(byte[] content) throws Exception {
+		return hex("MD5", content);
+	}
+
+	private static String hex(String algorithm, byte[] content) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance(algorithm).digest(content)) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
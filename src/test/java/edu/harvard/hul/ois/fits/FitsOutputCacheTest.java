@@ -0,0 +1,130 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twmacinta.util.MD5;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class FitsOutputCacheTest extends AbstractLoggingTest {
+
+	private static final File CACHE_DIR = new File("target/fits-output-cache-test");
+
+	private File copy;
+
+	@Before
+	public void clearCache() throws Exception {
+		FileUtils.deleteDirectory(CACHE_DIR);
+	}
+
+	@After
+	public void deleteCache() throws Exception {
+		FileUtils.deleteDirectory(CACHE_DIR);
+		if (copy != null) {
+			copy.delete();
+		}
+	}
+
+	/**
+	 * Tests that a file with the same content as one examined before gets the
+	 * cached output, marked as cached and with its own file information.
+	 */
+	@Test
+	public void cachedOutputTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_output_cache.xml"));
+		File original = new File("testfiles/3426592.jpg");
+		copy = File.createTempFile("fits-cache-copy", ".jpg");
+		FileUtils.copyFile(original, copy);
+
+		FitsOutput first = fits.examine(original);
+		assertNull(first.getFitsXml().getRootElement().getAttributeValue("cached"));
+		assertEquals(1, fits.getOutputCache().getMisses());
+
+		FitsOutput second = fits.examine(copy);
+		Element root = second.getFitsXml().getRootElement();
+		Namespace ns = root.getNamespace();
+		assertEquals("true", root.getAttributeValue("cached"));
+		assertEquals(1, fits.getOutputCache().getHits());
+		Element fileinfo = root.getChild("fileinfo", ns);
+		assertEquals(copy.getName(), fileinfo.getChildText("filename", ns));
+		assertEquals(copy.getAbsolutePath(), fileinfo.getChildText("filepath", ns));
+		Element originalFileinfo = first.getFitsXml().getRootElement().getChild("fileinfo", ns);
+		assertEquals(originalFileinfo.getChildText("md5checksum", ns), fileinfo.getChildText("md5checksum", ns));
+		fits.shutdown();
+	}
+
+	/**
+	 * Tests that a file changed after a cache hit is examined again and gets
+	 * the checksums of its new content.
+	 */
+	@Test
+	public void changedFileTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_output_cache.xml"));
+		File original = new File("testfiles/3426592.jpg");
+		copy = File.createTempFile("fits-cache-copy", ".jpg");
+		FileUtils.copyFile(original, copy);
+		fits.examine(original);
+		assertEquals("true", fits.examine(copy).getFitsXml().getRootElement().getAttributeValue("cached"));
+
+		byte[] changed = FileUtils.readFileToByteArray(copy);
+		changed[changed.length - 1] ^= 1;
+		FileUtils.writeByteArrayToFile(copy, changed);
+		Element root = fits.examine(copy).getFitsXml().getRootElement();
+		Namespace ns = root.getNamespace();
+		assertNull(root.getAttributeValue("cached"));
+		assertEquals(2, fits.getOutputCache().getMisses());
+		MessageDigest md5 = MessageDigest.getInstance("MD5");
+		assertEquals(MD5.asHex(md5.digest(changed)), root.getChild("fileinfo", ns).getChildText("md5checksum", ns));
+		fits.shutdown();
+	}
+
+	/**
+	 * Tests that the least recently used entries are removed when the cache
+	 * grows past its maximum size.
+	 */
+	@Test
+	public void evictionTest() throws Exception {
+		FitsOutputCache cache = new FitsOutputCache(CACHE_DIR, 2000);
+		for (int i = 0; i < 10; i++) {
+			cache.put("key" + i, createOutput(i));
+			// keep the first entry in use
+			assertNotNull(cache.get("key0"));
+		}
+		assertTrue(cache.getSize() <= 2000);
+		assertNotNull(cache.get("key0"));
+		assertNotNull(cache.get("key9"));
+		assertNull(cache.get("key1"));
+
+		// the entries survive a restart
+		FitsOutputCache reopened = new FitsOutputCache(CACHE_DIR, 2000);
+		assertEquals(cache.getSize(), reopened.getSize());
+		assertNotNull(reopened.get("key9"));
+	}
+
+	private static FitsOutput createOutput(int i) {
+		Element root = new Element("fits", Namespace.getNamespace(Fits.XML_NAMESPACE));
+		// random text so that the compressed entries are of a useful size
+		StringBuilder sb = new StringBuilder();
+		Random random = new Random(i);
+		for (int j = 0; j < 500; j++) {
+			sb.append((char) ('a' + random.nextInt(26)));
+		}
+		root.setText(sb.toString());
+		return new FitsOutput(new Document(root));
+	}
+}
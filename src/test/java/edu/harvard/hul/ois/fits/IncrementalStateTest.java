@@ -0,0 +1,94 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class IncrementalStateTest extends AbstractLoggingTest {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = File.createTempFile("fits-incremental", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void deleteDir() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Tests that the previous output of an unchanged file is found, and that
+	 * changed files and a changed environment are examined again.
+	 */
+	@Test
+	public void unchangedOutputTest() throws Exception {
+		File stateFile = new File(dir, "state.txt");
+		File unchanged = createFile("unchanged.txt", "unchanged");
+		File changed = createFile("changed.txt", "changed");
+		File unchangedOutput = createFile("unchanged.txt.fits.xml", "<fits/>");
+		File changedOutput = createFile("changed.txt.fits.xml", "<fits/>");
+
+		IncrementalState state = new IncrementalState(stateFile, "env1");
+		assertNull(state.getUnchangedOutput(unchanged));
+		state.record(unchanged, unchangedOutput);
+		state.record(changed, changedOutput);
+		state.save();
+
+		FileUtils.writeStringToFile(changed, "changed again");
+
+		state = new IncrementalState(stateFile, "env1");
+		assertEquals(unchangedOutput.getAbsoluteFile(), state.getUnchangedOutput(unchanged));
+		assertNull(state.getUnchangedOutput(changed));
+
+		state = new IncrementalState(stateFile, "env2");
+		assertNull(state.getUnchangedOutput(unchanged));
+	}
+
+	/**
+	 * Tests that the previous output of a changed file is found so that it can
+	 * be replaced, also when the environment changed.
+	 */
+	@Test
+	public void previousOutputTest() throws Exception {
+		File stateFile = new File(dir, "state.txt");
+		File changed = createFile("changed.txt", "changed");
+		File changedOutput = createFile("changed.txt.fits.xml", "<fits/>");
+		File removedOutput = createFile("removed.txt.fits.xml", "<fits/>");
+		File removed = createFile("removed.txt", "removed");
+
+		IncrementalState state = new IncrementalState(stateFile, "env1");
+		assertNull(state.getPreviousOutput(changed));
+		state.record(changed, changedOutput);
+		state.record(removed, removedOutput);
+		state.save();
+
+		FileUtils.writeStringToFile(changed, "changed again");
+		removedOutput.delete();
+
+		state = new IncrementalState(stateFile, "env1");
+		assertNull(state.getUnchangedOutput(changed));
+		assertEquals(changedOutput.getAbsoluteFile(), state.getPreviousOutput(changed));
+		assertNull(state.getPreviousOutput(removed));
+
+		state = new IncrementalState(stateFile, "env2");
+		assertEquals(changedOutput.getAbsoluteFile(), state.getPreviousOutput(changed));
+	}
+
+	private File createFile(String name, String content) throws Exception {
+		File file = new File(dir, name);
+		FileUtils.writeStringToFile(file, content);
+		return file;
+	}
+}
@@ -0,0 +1,70 @@
+package edu.harvard.hul.ois.fits;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class ProcessingJournalTest extends AbstractLoggingTest {
+
+	private File dir;
+
+	@Before
+	public void createDir() throws Exception {
+		dir = File.createTempFile("fits-journal", "");
+		dir.delete();
+		dir.mkdir();
+	}
+
+	@After
+	public void deleteDir() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Tests that recorded files are listed as completed when the journal is
+	 * reopened, until they change.
+	 */
+	@Test
+	public void resumeTest() throws Exception {
+		File journalFile = new File(dir, "journal.txt");
+		File done = createFile("done.txt", "done");
+		File tabbed = createFile("tab\tname.txt", "tab");
+		File changed = createFile("changed.txt", "changed");
+		File notDone = createFile("notdone.txt", "not done");
+
+		ProcessingJournal journal = new ProcessingJournal(journalFile);
+		journal.record(done, new File(dir, "done.txt.fits.xml"));
+		journal.record(tabbed, new File(dir, "tab\tname.txt.fits.xml"));
+		journal.record(changed, new File(dir, "changed.txt.fits.xml"));
+		journal.close();
+
+		// a line cut short by a crash
+		Writer writer = new FileWriter(journalFile, true);
+		writer.write(notDone.getAbsolutePath() + "\t12");
+		writer.close();
+		changed.setLastModified(changed.lastModified() - 10000);
+
+		journal = new ProcessingJournal(journalFile);
+		assertTrue(journal.isCompleted(done));
+		assertTrue(journal.isCompleted(tabbed));
+		assertFalse(journal.isCompleted(changed));
+		assertFalse(journal.isCompleted(notDone));
+		journal.close();
+	}
+
+	private File createFile(String name, String content) throws Exception {
+		File file = new File(dir, name);
+		FileUtils.writeStringToFile(file, content);
+		return file;
+	}
+}
@@ -33,9 +33,9 @@ import edu.harvard.hul.ois.fits.FitsOutput;
 import edu.harvard.hul.ois.fits.exceptions.FitsException;
 import edu.harvard.hul.ois.fits.identity.FitsIdentity;
 import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
-import edu.harvard.hul.ois.fits.tools.Tool;
 import edu.harvard.hul.ois.fits.tools.ToolBelt;
 import edu.harvard.hul.ois.fits.tools.ToolOutput;
+import edu.harvard.hul.ois.fits.tools.ToolResult;
 
 /**
  * This test class is to verify output created by the OISConsolidator class.
@@ -56,7 +56,7 @@ public class OISConsolidatorTest extends AbstractLoggingTest {
 		File input = new File("testfiles/" + inputFilename);
 		File fitsConfigFile = new File("testfiles/properties/fits_droid_only.xml");
 		
-		// Make sure ToolOutput for each tool not reset after examine() so it can be reused for test.
+		// Make sure ToolResult for each tool is kept after examine() so it can be reused for test.
 		Fits fits = new Fits(null, fitsConfigFile) {
 			
 			@Override
@@ -74,8 +74,9 @@ public class OISConsolidatorTest extends AbstractLoggingTest {
     	
     	ToolBelt toolBelt = fits.getToolbelt();
     	assertEquals(1, toolBelt.getTools().size());
-    	Tool tool = toolBelt.getTools().get(0);
-    	ToolOutput toolOutput = tool.getOutput();
+    	assertEquals(1, fitsOut.getToolResults().size());
+    	ToolResult toolResult = fitsOut.getToolResults().get(0);
+    	ToolOutput toolOutput = toolResult.getOutput();
     	assertNotNull(toolOutput);
     	OISConsolidator consolidator = new OISConsolidator(fits);
     	List<ToolOutput> results = new ArrayList<ToolOutput>();
@@ -103,7 +104,7 @@ public class OISConsolidatorTest extends AbstractLoggingTest {
 		File input = new File("testfiles/" + inputFilename);
 		File fitsConfigFile = new File("testfiles/properties/fits_tika_droid.xml");
 		
-		// Make sure ToolOutput for each tool not reset after examine() so it can be reused for test.
+		// Make sure ToolResult for each tool is kept after examine() so it can be reused for test.
 		Fits fits = new Fits(null, fitsConfigFile) {
 			
 			@Override
@@ -123,8 +124,8 @@ public class OISConsolidatorTest extends AbstractLoggingTest {
     	assertEquals(2, toolBelt.getTools().size());
     	OISConsolidator consolidator = new OISConsolidator(fits);
     	List<ToolOutput> results = new ArrayList<ToolOutput>();
-    	for (Tool tool : toolBelt.getTools()) {
-    		ToolOutput toolOutput = tool.getOutput();
+    	for (ToolResult toolResult : fitsOut.getToolResults()) {
+    		ToolOutput toolOutput = toolResult.getOutput();
     		assertNotNull(toolOutput);
     		results.add(toolOutput);
     	}
@@ -151,7 +152,7 @@ public class OISConsolidatorTest extends AbstractLoggingTest {
 		File input = new File("testfiles/" + inputFilename);
 		File fitsConfigFile = new File("testfiles/properties/fits_droid_tika.xml");
 		
-		// Make sure ToolOutput for each tool not reset after examine() so it can be reused for test.
+		// Make sure ToolResult for each tool is kept after examine() so it can be reused for test.
 		Fits fits = new Fits(null, fitsConfigFile) {
 			
 			@Override
@@ -171,8 +172,8 @@ public class OISConsolidatorTest extends AbstractLoggingTest {
     	assertEquals(2, toolBelt.getTools().size());
     	OISConsolidator consolidator = new OISConsolidator(fits);
     	List<ToolOutput> results = new ArrayList<ToolOutput>();
-    	for (Tool tool : toolBelt.getTools()) {
-    		ToolOutput toolOutput = tool.getOutput();
+    	for (ToolResult toolResult : fitsOut.getToolResults()) {
+    		ToolOutput toolOutput = toolResult.getOutput();
     		assertNotNull(toolOutput);
     		results.add(toolOutput);
     	}
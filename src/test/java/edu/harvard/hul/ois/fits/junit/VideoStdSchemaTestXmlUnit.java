@@ -46,6 +46,7 @@ public class VideoStdSchemaTestXmlUnit extends AbstractXmlUnitTest {
 			"timestamp", 
 			"fitsExecutionTime",
 			"executionTime",
+			"queueTime",
 			"filepath",
 			"location",
 			"lastmodified",
@@ -64,6 +64,7 @@ public class VideoStdSchemaTestXmlServiceUnit extends AbstractXmlUnitTest {
 			"timestamp", 
 			"fitsExecutionTime",
 			"executionTime",
+			"queueTime",
 			"filepath",
 			"location",
 			"lastmodified",
@@ -74,6 +74,7 @@ public class AbstractXmlUnitTest extends AbstractLoggingTest {
 			"timestamp", 
 			"fitsExecutionTime",
 			"executionTime",
+			"queueTime",
 			"filepath",
 			"location",
 			"lastmodified"};
@@ -0,0 +1,148 @@
+package edu.harvard.hul.ois.fits.tools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class FileContextTest extends AbstractLoggingTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws Exception {
+		file = File.createTempFile("fits-context", ".bin");
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		FileUtils.writeByteArrayToFile(file, data);
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	/**
+	 * Tests that only the configured header and tail of a larger file are read.
+	 */
+	@Test
+	public void headerAndTailTest() throws Exception {
+		FileContext context = new FileContext(file, 100, 10);
+		assertEquals(1000, context.getLength());
+		assertFalse(context.isComplete());
+
+		ByteBuffer header = context.getHeader();
+		assertEquals(100, header.remaining());
+		assertEquals(0, header.get(0));
+		assertEquals(99, header.get(99));
+
+		ByteBuffer tail = context.getTail();
+		assertEquals(10, tail.remaining());
+		assertEquals((byte) 990, tail.get(0));
+		assertEquals((byte) 999, tail.get(9));
+	}
+
+	/**
+	 * Tests that a file shorter than the header is held in full and the
+	 * tail is taken from the header.
+	 */
+	@Test
+	public void completeFileTest() throws Exception {
+		FileContext context = new FileContext(file, 4096, 10);
+		assertTrue(context.isComplete());
+		assertEquals(1000, context.getHeader().remaining());
+		assertEquals(10, context.getTail().remaining());
+		assertEquals((byte) 990, context.getTail().get(0));
+		assertEquals(5, context.getHeaderBytes(5).length);
+	}
+
+	/**
+	 * Tests that the buffers handed to the tools cannot change the shared
+	 * bytes and that each caller gets its own position.
+	 */
+	@Test
+	public void readOnlyTest() throws Exception {
+		FileContext context = new FileContext(file, 100, 0);
+		ByteBuffer first = context.getHeader();
+		first.get(new byte[50]);
+		assertEquals(100, context.getHeader().remaining());
+		assertEquals(0, context.getTail().remaining());
+		try {
+			first.put(0, (byte) 1);
+			fail("header buffer should be read-only");
+		} catch (ReadOnlyBufferException e) {
+		}
+	}
+
+	/**
+	 * Tests that a file mapped in several chunks is read the same as through
+	 * a heap buffer, including reads that span two chunks.
+	 */
+	@Test
+	public void mappedChunksTest() throws Exception {
+		File large = File.createTempFile("fits-context", ".bin");
+		try {
+			byte[] data = new byte[FileContext.MIN_MAPPED_LENGTH + 300000];
+			new Random(17).nextBytes(data);
+			FileUtils.writeByteArrayToFile(large, data);
+
+			FileContext mapped = new FileContext(large, 100, 100, true, 256 * 1024);
+			FileContext buffered = new FileContext(large, 100, 100, false);
+			try {
+				assertTrue(mapped.isMapped());
+				assertFalse(buffered.isMapped());
+				assertEquals(buffered.getTail(), mapped.getTail());
+
+				// within a chunk, and across the boundary of the first two chunks
+				assertEquals(ByteBuffer.wrap(data, 1000, 5000), mapped.read(1000, 5000));
+				assertEquals(ByteBuffer.wrap(data, 256 * 1024 - 10, 20), mapped.read(256 * 1024 - 10, 20));
+				assertEquals(ByteBuffer.wrap(data, data.length - 5, 5), buffered.read(data.length - 5, 50));
+
+				MessageDigest expected = MessageDigest.getInstance("SHA-256");
+				expected.update(data);
+				byte[] hash = expected.digest();
+				MessageDigest fromMapped = MessageDigest.getInstance("SHA-256");
+				MessageDigest md5 = MessageDigest.getInstance("MD5");
+				mapped.digest(fromMapped, md5);
+				assertArrayEquals(hash, fromMapped.digest());
+				assertArrayEquals(MessageDigest.getInstance("MD5").digest(data), md5.digest());
+				MessageDigest fromBuffered = MessageDigest.getInstance("SHA-256");
+				buffered.digest(fromBuffered);
+				assertArrayEquals(hash, fromBuffered.digest());
+
+				// a range across the boundary of two mapped chunks
+				MessageDigest range = MessageDigest.getInstance("SHA-256");
+				range.update(data, 200000, 100000);
+				byte[] rangeHash = range.digest();
+				MessageDigest mappedRange = MessageDigest.getInstance("SHA-256");
+				mapped.digest(null, 200000, 100000, mappedRange);
+				assertArrayEquals(rangeHash, mappedRange.digest());
+				MessageDigest bufferedRange = MessageDigest.getInstance("SHA-256");
+				buffered.digest(null, 200000, 100000, bufferedRange);
+				assertArrayEquals(rangeHash, bufferedRange.digest());
+			} finally {
+				mapped.close();
+				buffered.close();
+			}
+		} finally {
+			large.delete();
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/* 
+ * Copyright 2017 Harvard University Library
+ * 
+ * This file is part of FITS (File Information Tool Set).
+ * 
+ * FITS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FITS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FITS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.harvard.hul.ois.fits.tools;
+
+import java.io.File;
+import java.util.List;
+
+import edu.harvard.hul.ois.fits.Fits;
+import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
+import edu.harvard.hul.ois.fits.identity.ToolIdentity;
+
+/**
+ * A Tool implementation that keeps the identity hints it was given
+ * to test the depends-on handling in Fits.
+ * 
+ * @see edu.harvard.hul.ois.fits.tools.ToolBeltTest#toolDependencyTest()
+ */
+public class IdentityHintTestTool extends ToolBase implements Tool {
+
+	private boolean enabled = true;
+	private List<ToolIdentity> identityHints;
+
+	public IdentityHintTestTool(Fits fits) throws FitsToolException {
+		super();
+		info = new ToolInfo("IdentityHintTestTool", "1.0", null);
+	}
+
+	@Override
+	public ToolOutput extractInfo(File file) throws FitsToolException {
+		return null;
+	}
+
+	@Override
+	public ToolOutput extractInfo(File file, List<ToolIdentity> identityHints) throws FitsToolException {
+		this.identityHints = identityHints;
+		return null;
+	}
+
+	public List<ToolIdentity> getIdentityHints() {
+		return identityHints;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean value) {
+		enabled = value;
+	}
+}
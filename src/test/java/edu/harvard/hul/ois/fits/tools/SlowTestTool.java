@@ -0,0 +1,60 @@
+/* 
+ * Copyright 2017 Harvard University Library
+ * 
+ * This file is part of FITS (File Information Tool Set).
+ * 
+ * FITS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FITS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FITS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.harvard.hul.ois.fits.tools;
+
+import java.io.File;
+
+import edu.harvard.hul.ois.fits.Fits;
+import edu.harvard.hul.ois.fits.exceptions.FitsToolException;
+
+/**
+ * A Tool implementation that runs far longer than any sensible timeout
+ * to test the timeout-ms handling in Fits.
+ * 
+ * @see edu.harvard.hul.ois.fits.tools.ToolBeltTest#toolTimeoutTest()
+ */
+public class SlowTestTool extends ToolBase implements Tool {
+
+	private boolean enabled = true;
+
+	public SlowTestTool(Fits fits) throws FitsToolException {
+		super();
+		info = new ToolInfo("SlowTestTool", "1.0", null);
+	}
+
+	@Override
+	public ToolOutput extractInfo(File file) throws FitsToolException {
+		try {
+			Thread.sleep(60000);
+		} catch (InterruptedException e) {
+			throw new FitsToolException("Interrupted", e);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean value) {
+		enabled = value;
+	}
+}
@@ -18,15 +18,23 @@
  */
 package edu.harvard.hul.ois.fits.tools;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
+import org.jdom.Element;
 import org.junit.Test;
 
 import edu.harvard.hul.ois.fits.Fits;
+import edu.harvard.hul.ois.fits.FitsOutput;
 import edu.harvard.hul.ois.fits.exceptions.FitsConfigurationException;
+import edu.harvard.hul.ois.fits.exceptions.FitsException;
 import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
 
 public class ToolBeltTest extends AbstractLoggingTest {
@@ -70,4 +78,83 @@ public class ToolBeltTest extends AbstractLoggingTest {
 			fail("Could not instantiate Fits or the XMLConfiguration: " + e.getMessage());
 		}
 	}
+
+	/**
+	 * Tests that the pool-size and max-concurrency attributes of a tool element
+	 * create a pool of separate instances behind the one configured tool.
+	 *
+	 * @see edu.harvard.hul.ois.fits.tools.ToolBelt#getToolPool(Tool)
+	 */
+	@Test
+	public void toolPoolTest() throws FitsConfigurationException {
+		File fitsConfigFile = new File("testfiles/properties/fits_test_tool_pool.xml");
+		Fits fits = new Fits(null, fitsConfigFile);
+		ToolBelt toolBelt = fits.getToolbelt();
+		assertEquals(1, toolBelt.getTools().size());
+
+		Tool tool = toolBelt.getTools().get(0);
+		ToolPool pool = toolBelt.getToolPool(tool);
+		assertNotNull(pool);
+		assertEquals(tool, pool.getTool());
+		assertEquals(3, pool.getPoolSize());
+		assertEquals(2, pool.getMaxConcurrency());
+
+		// acquiring never blocks; a third caller waits for the max-concurrency
+		CompletableFuture<Tool> first = toolBelt.acquire(tool);
+		CompletableFuture<Tool> second = toolBelt.acquire(tool);
+		CompletableFuture<Tool> third = toolBelt.acquire(tool);
+		assertTrue(first.isDone());
+		assertTrue(second.isDone());
+		assertFalse(third.isDone());
+		assertNotSame(first.join(), second.join());
+
+		// and runs once another caller releases its instance
+		toolBelt.release(tool, first.join());
+		assertTrue(third.isDone());
+		assertNotSame(second.join(), third.join());
+		toolBelt.release(tool, second.join());
+		toolBelt.release(tool, third.join());
+	}
+
+	/**
+	 * Tests that a tool running past its timeout-ms is abandoned and reported
+	 * in the statistics instead of holding up examine().
+	 */
+	@Test
+	public void toolTimeoutTest() throws FitsException {
+		File fitsConfigFile = new File("testfiles/properties/fits_test_tool_timeout.xml");
+		Fits fits = new Fits(null, fitsConfigFile);
+		Tool tool = fits.getToolbelt().getTools().get(0);
+		assertEquals(500, fits.getToolbelt().getTimeout(tool));
+
+		long start = System.currentTimeMillis();
+		FitsOutput fitsOut = fits.examine(fitsConfigFile);
+		assertTrue("examine() should return soon after the timeout", System.currentTimeMillis() - start < 30000);
+		assertEquals(1, fitsOut.getCaughtThrowables().size());
+		Element root = fitsOut.getFitsXml().getRootElement();
+		Element statistics = root.getChild("statistics", root.getNamespace());
+		assertEquals("timed out", statistics.getChild("tool", root.getNamespace()).getAttributeValue("status"));
+	}
+
+	/**
+	 * Tests that a tool with a depends-on attribute runs after the tools it
+	 * depends on and receives their identification, and that unknown and
+	 * circular dependencies are ignored.
+	 */
+	@Test
+	public void toolDependencyTest() throws FitsException {
+		File fitsConfigFile = new File("testfiles/properties/fits_test_tool_dependency.xml");
+		Fits fits = new Fits(null, fitsConfigFile);
+		ToolBelt toolBelt = fits.getToolbelt();
+		IdentityHintTestTool hintTool = (IdentityHintTestTool)toolBelt.getTools().get(0);
+		Tool ffident = toolBelt.getTools().get(1);
+		assertEquals(1, toolBelt.getDependencies(hintTool).size());
+		assertEquals(ffident, toolBelt.getDependencies(hintTool).get(0));
+		assertTrue(toolBelt.getDependencies(ffident).isEmpty());
+
+		fits.examine(fitsConfigFile);
+		assertNotNull(hintTool.getIdentityHints());
+		assertEquals(1, hintTool.getIdentityHints().size());
+		assertEquals("text/xml", hintTool.getIdentityHints().get(0).getMime());
+	}
 }
@@ -0,0 +1,85 @@
+/* 
+ * Copyright 2017 Harvard University Library
+ * 
+ * This file is part of FITS (File Information Tool Set).
+ * 
+ * FITS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FITS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FITS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package edu.harvard.hul.ois.fits.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jdom.Element;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.Fits;
+import edu.harvard.hul.ois.fits.FitsOutput;
+import edu.harvard.hul.ois.fits.exceptions.FitsException;
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class ToolRouterTest extends AbstractLoggingTest {
+
+	/**
+	 * Tests that the format of the file header, not the file extension,
+	 * decides which tools run when routing is enabled.
+	 */
+	@Test
+	public void routeByHeaderTest() throws FitsException {
+		// an XML file, which FileInfo would skip by extension
+		File input = new File("testfiles/properties/fits_test_routing.xml");
+		Fits fits = new Fits(null, input);
+		assertNotNull(fits.getToolbelt().getToolRouter());
+
+		FitsOutput fitsOut = fits.examine(input);
+		Map<String, Element> statistics = getToolStatistics(fitsOut);
+		assertNotNull("FileInfo should have run", statistics.get("OIS File Information").getAttributeValue("executionTime"));
+		assertEquals("did not run", statistics.get("ffident").getAttributeValue("status"));
+	}
+
+	/**
+	 * Tests that a file whose format is not recognized falls back to the
+	 * include-exts and exclude-exts of the tools.
+	 */
+	@Test
+	public void unrecognizedFormatTest() throws FitsException {
+		File fitsConfigFile = new File("testfiles/properties/fits_test_routing.xml");
+		Fits fits = new Fits(null, fitsConfigFile);
+		File input = new File("testfiles/plain-text.txt");
+		assertNull(fits.getToolbelt().getToolRouter().route(input));
+
+		FitsOutput fitsOut = fits.examine(input);
+		Map<String, Element> statistics = getToolStatistics(fitsOut);
+		assertEquals("did not run", statistics.get("OIS File Information").getAttributeValue("status"));
+		assertNotNull("ffident should have run", statistics.get("ffident").getAttributeValue("executionTime"));
+	}
+
+	private Map<String, Element> getToolStatistics(FitsOutput fitsOut) {
+		Element root = fitsOut.getFitsXml().getRootElement();
+		Element statistics = root.getChild("statistics", root.getNamespace());
+		Map<String, Element> tools = new HashMap<String, Element>();
+		@SuppressWarnings("unchecked")
+		List<Element> children = statistics.getChildren("tool", root.getNamespace());
+		for (Element tool : children) {
+			tools.put(tool.getAttributeValue("toolname"), tool);
+		}
+		return tools;
+	}
+}
@@ -0,0 +1,92 @@
+package edu.harvard.hul.ois.fits.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Hashtable;
+
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Xslt30Transformer;
+import net.sf.saxon.s9api.XsltExecutable;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+import edu.harvard.hul.ois.fits.tools.utils.XsltTemplatesCache;
+import edu.harvard.hul.ois.fits.tools.utils.XsltTransformMap;
+
+public class XsltTemplatesCacheTest extends AbstractLoggingTest {
+
+	private static final String XSLT = "<xsl:stylesheet version=\"2.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+			+ "<xsl:template match=\"/\"><out/></xsl:template></xsl:stylesheet>";
+
+	/**
+	 * Tests that a stylesheet is compiled once and again after it is modified.
+	 */
+	@Test
+	public void cacheTest() throws Exception {
+		File xslt = File.createTempFile("fits-cache", ".xslt");
+		try {
+			FileUtils.writeStringToFile(xslt, XSLT, "UTF-8");
+			xslt.setLastModified(1000000000000L);
+			long hits = XsltTemplatesCache.getHitCount();
+			long misses = XsltTemplatesCache.getMissCount();
+
+			XsltExecutable executable = XsltTemplatesCache.getExecutable(xslt.getPath());
+			assertSame(executable, XsltTemplatesCache.getExecutable(xslt.getPath()));
+			assertEquals(misses + 1, XsltTemplatesCache.getMissCount());
+			assertEquals(hits + 1, XsltTemplatesCache.getHitCount());
+
+			xslt.setLastModified(2000000000000L);
+			assertNotSame(executable, XsltTemplatesCache.getExecutable(xslt.getPath()));
+			assertEquals(misses + 2, XsltTemplatesCache.getMissCount());
+		} finally {
+			xslt.delete();
+		}
+	}
+
+	/**
+	 * Tests that each thread reuses its own transformer.
+	 */
+	@Test
+	public void transformerTest() throws Exception {
+		final String xslt = "xml" + File.separator + "prettyprint.xslt";
+		Xslt30Transformer transformer = XsltTemplatesCache.getTransformer(xslt);
+		assertSame(transformer, XsltTemplatesCache.getTransformer(xslt));
+
+		final Xslt30Transformer[] other = new Xslt30Transformer[1];
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					other[0] = XsltTemplatesCache.getTransformer(xslt);
+				} catch (SaxonApiException e) {
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNotNull(other[0]);
+		assertNotSame(transformer, other[0]);
+	}
+
+	/**
+	 * Tests that the stylesheets of an XSLT map are compiled by preload().
+	 */
+	@Test
+	public void preloadTest() throws Exception {
+		String dir = "xml" + File.separator + "exiftool" + File.separator;
+		Hashtable<String,String> map = XsltTransformMap.getMap(dir + "exiftool_xslt_map.xml");
+		XsltTemplatesCache.preload();
+
+		long misses = XsltTemplatesCache.getMissCount();
+		for (String transform : map.values()) {
+			XsltTemplatesCache.getTemplates(dir + transform);
+		}
+		assertEquals(misses, XsltTemplatesCache.getMissCount());
+	}
+
+}
@@ -0,0 +1,68 @@
+package edu.harvard.hul.ois.fits.tools.exiftool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.jdom.Document;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+
+public class ExiftoolRawOutputTest extends AbstractLoggingTest {
+
+	private static final String OUTPUT = "ExifToolVersion\t11.54\n"
+			+ "FileName\tR&D <draft>.jpg\n"
+			+ "FileType\tJPEG\n"
+			+ "FileTypeExtension\tjpg\r\n"
+			+ "Comment\t  spaces  \t\tignored\n"
+			+ "Empty\t\n"
+			+ "Blank\t\t\n"
+			+ "Whitespace\t  \n"
+			+ "no tab on this line\n"
+			+ "\tno tag\n"
+			+ "FileType\tTIFF\n"
+			+ "Copyright\t© 2016 café\n";
+
+	/**
+	 * Tests that the raw XML is the same as that of the document parsed from the
+	 * escaped output, and that the first FileType is found.
+	 */
+	@Test
+	public void createXmlTest() throws Exception {
+		Exiftool.RawOutput parsed = Exiftool.createXml(OUTPUT);
+		XMLOutputter outputter = new XMLOutputter();
+		assertEquals(outputter.outputString(parse(OUTPUT)), outputter.outputString(parsed.doc));
+		assertEquals("JPEG", parsed.format);
+	}
+
+	/**
+	 * Tests that no file type is reported when Exiftool reports none.
+	 */
+	@Test
+	public void noFileTypeTest() throws Exception {
+		Exiftool.RawOutput parsed = Exiftool.createXml("Error\tFile not found\n");
+		assertNull(parsed.format);
+		assertEquals("File not found", parsed.doc.getRootElement().getChildText("Error"));
+	}
+
+	/* The raw XML as it was built from text */
+	private Document parse(String execOut) throws Exception {
+		StringBuilder out = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<exiftool>\n");
+		out.append("<rawOutput>\n" + StringEscapeUtils.escapeXml(execOut) + "</rawOutput>\n");
+		for (String line : execOut.split("\n")) {
+			String[] parts = line.split("\t");
+			String field = parts[0].trim();
+			if (parts.length > 1 && field.length() > 0) {
+				out.append("<" + field + ">" + StringEscapeUtils.escapeXml(parts[1].trim()) + "</" + field + ">\n");
+			}
+		}
+		out.append("</exiftool>\n");
+		return new SAXBuilder().build(new StringReader(out.toString()));
+	}
+
+}
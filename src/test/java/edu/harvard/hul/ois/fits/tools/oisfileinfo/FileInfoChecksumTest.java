@@ -0,0 +1,126 @@
+package edu.harvard.hul.ois.fits.tools.oisfileinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.junit.Test;
+
+import edu.harvard.hul.ois.fits.Fits;
+import edu.harvard.hul.ois.fits.FitsOutput;
+import edu.harvard.hul.ois.fits.tests.AbstractLoggingTest;
+import edu.harvard.hul.ois.fits.tools.FileContext;
+
+public class FileInfoChecksumTest extends AbstractLoggingTest {
+
+	/**
+	 * Tests that all configured checksums and the tree hash are reported, for a small file and
+	 * for a file large enough to be mapped and digested on several threads.
+	 */
+	@Test
+	public void allAlgorithmsTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_checksums.xml"));
+		File large = File.createTempFile("fits-checksum", ".bin");
+		try {
+			byte[] data = new byte[FileContext.MIN_MAPPED_LENGTH * 3 + 17];
+			new Random(3).nextBytes(data);
+			FileUtils.writeByteArrayToFile(large, data);
+
+			assertChecksums(fits.examine(large), data);
+			File small = new File("testfiles/3426592.jpg");
+			assertChecksums(fits.examine(small), FileUtils.readFileToByteArray(small));
+		} finally {
+			large.delete();
+			fits.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that only the MD5 is reported by default.
+	 */
+	@Test
+	public void defaultAlgorithmTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_fileinfo.xml"));
+		try {
+			Element fileinfo = getFileinfo(fits.examine(new File("testfiles/3426592.jpg")));
+			Namespace ns = fileinfo.getNamespace();
+			assertEquals(hex("MD5", FileUtils.readFileToByteArray(new File("testfiles/3426592.jpg"))),
+					fileinfo.getChildText("md5checksum", ns));
+			assertNull(fileinfo.getChild("sha256checksum", ns));
+		} finally {
+			fits.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that deferred checksums are added to the output once computed.
+	 */
+	@Test
+	public void deferredChecksumTest() throws Exception {
+		Fits fits = new Fits(null, new File("testfiles/properties/fits_test_deferred_checksum.xml"));
+		try {
+			File input = new File("testfiles/3426592.jpg");
+			FitsOutput fitsOut = fits.examine(input).getDeferredChecksums().get();
+			assertFalse(fitsOut.hasPendingChecksums());
+			Element fileinfo = getFileinfo(fitsOut);
+			Namespace ns = fileinfo.getNamespace();
+			Element md5 = fileinfo.getChild("md5checksum", ns);
+			assertEquals(hex("MD5", FileUtils.readFileToByteArray(input)), md5.getText());
+			assertEquals("OIS File Information", md5.getAttributeValue("toolname"));
+			assertEquals(1, fileinfo.getChildren("md5checksum", ns).size());
+		} finally {
+			fits.shutdown();
+		}
+	}
+
+	private void assertChecksums(FitsOutput fitsOut, byte[] data) throws Exception {
+		Element fileinfo = getFileinfo(fitsOut);
+		Namespace ns = fileinfo.getNamespace();
+		assertEquals(hex("MD5", data), fileinfo.getChildText("md5checksum", ns));
+		assertEquals(hex("SHA-1", data), fileinfo.getChildText("sha1checksum", ns));
+		assertEquals(hex("SHA-256", data), fileinfo.getChildText("sha256checksum", ns));
+		assertEquals(hex("SHA-512", data), fileinfo.getChildText("sha512checksum", ns));
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		assertEquals(String.format("%08x", crc.getValue()), fileinfo.getChildText("crc32checksum", ns));
+
+		// the SHA-256 of the SHA-256 digests of each 1 MB chunk
+		int chunkSize = 1024 * 1024;
+		MessageDigest root = MessageDigest.getInstance("SHA-256");
+		for (int offset = 0; offset == 0 || offset < data.length; offset += chunkSize) {
+			MessageDigest leaf = MessageDigest.getInstance("SHA-256");
+			leaf.update(data, offset, Math.min(chunkSize, data.length - offset));
+			root.update(leaf.digest());
+		}
+		Element treeHash = fileinfo.getChild("treehash", ns);
+		assertEquals("sha-256", treeHash.getAttributeValue("algorithm"));
+		assertEquals(String.valueOf(chunkSize), treeHash.getAttributeValue("chunksize"));
+		assertEquals(hex(root.digest()), treeHash.getText());
+	}
+
+	private String hex(String algorithm, byte[] data) throws Exception {
+		return hex(MessageDigest.getInstance(algorithm).digest(data));
+	}
+
+	private String hex(byte[] digest) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private Element getFileinfo(FitsOutput fitsOut) {
+		Element root = fitsOut.getFitsXml().getRootElement();
+		return root.getChild("fileinfo", root.getNamespace());
+	}
+
+}